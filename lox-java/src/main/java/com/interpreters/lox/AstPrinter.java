@@ -63,6 +63,11 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
                 expr.getArguments().stream().map(this::print).collect(Collectors.joining(",")));
     }
 
+    @Override
+    public String visitInlineExpr(Expr.Inline expr) {
+        return parenthesize("inline", expr.getBody());
+    }
+
     @Override
     public String visitFunctionExpr(Expr.Function expr) {
         return String.format("fun (%s) {\n%s\n}", expr.getParams().stream().map(Token::getLexeme).collect(Collectors.joining(","))
@@ -0,0 +1,633 @@
+package com.interpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles the syntax tree into bytecode {@link Chunk}s for the {@link VM}.
+ * <p>
+ * The tree has already been checked by the {@link Resolver}; this pass only works out where each
+ * variable lives for the VM: a stack slot of the current function, an upvalue captured from an
+ * enclosing function, or a global cell.
+ */
+public class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_CONSTANTS = 65536;
+    private static final int MAX_JUMP = 65535;
+
+    private final VM vm;
+    private FunctionState current = null;
+    private int line = 1;
+
+    private enum FunctionType {
+        SCRIPT, FUNCTION, METHOD, INITIALIZER
+    }
+
+    private static class Local {
+        private final String name;
+        private final int depth;
+        // declared without initializer, reads must check for the uninitialized marker
+        private final boolean checked;
+        private boolean captured = false;
+
+        private Local(String name, int depth, boolean checked) {
+            this.name = name;
+            this.depth = depth;
+            this.checked = checked;
+        }
+    }
+
+    private static class Upvalue {
+        private final boolean isLocal;
+        private final int index;
+
+        private Upvalue(boolean isLocal, int index) {
+            this.isLocal = isLocal;
+            this.index = index;
+        }
+    }
+
+    private static class Loop {
+        private final int scopeDepth;
+        private final List<Integer> breakJumps = new ArrayList<>();
+        private final Loop enclosing;
+
+        private Loop(int scopeDepth, Loop enclosing) {
+            this.scopeDepth = scopeDepth;
+            this.enclosing = enclosing;
+        }
+    }
+
+    private static class FunctionState {
+        private final FunctionState enclosing;
+        private final VM.ObjFunction function;
+        private final FunctionType type;
+        private final List<Local> locals = new ArrayList<>();
+        private final List<Upvalue> upvalues = new ArrayList<>();
+        private int scopeDepth = 0;
+        private Loop loop = null;
+
+        private FunctionState(FunctionState enclosing, VM.ObjFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            // slot 0 holds the receiver in methods and the callee otherwise
+            locals.add(new Local(type == FunctionType.METHOD || type == FunctionType.INITIALIZER ? "this" : "", 0, false));
+        }
+    }
+
+    public BytecodeCompiler(VM vm) {
+        this.vm = vm;
+    }
+
+    public VM.ObjFunction compile(List<Stmt> stmts) {
+        current = new FunctionState(null, new VM.ObjFunction("script", 0), FunctionType.SCRIPT);
+        stmts.forEach(this::compile);
+        emitReturn();
+        VM.ObjFunction function = current.function;
+        current = null;
+        return function;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitAssignmentExpr(Expr.Assignment expr) {
+        assign(expr);
+        // like the tree-walker, an assignment evaluates to nil
+        emitByte(OpCode.POP);
+        emitByte(OpCode.NIL);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.getExpr());
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(expr.getThenBranch());
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        emitByte(OpCode.POP);
+        compile(expr.getElseBranch());
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.getLeft());
+        if (expr.getOperator().getTokenType() == TokenType.COMMA) {
+            // like the tree-walker, a comma expression evaluates both operands to nil
+            emitByte(OpCode.POP);
+            compile(expr.getRight());
+            emitByte(OpCode.POP);
+            emitByte(OpCode.NIL);
+            return null;
+        }
+        compile(expr.getRight());
+        line = expr.getOperator().getLine();
+        switch (expr.getOperator().getTokenType()) {
+            case PLUS -> emitByte(OpCode.ADD);
+            case MINUS -> emitByte(OpCode.SUBTRACT);
+            case STAR -> emitByte(OpCode.MULTIPLY);
+            case SLASH -> emitByte(OpCode.DIVIDE);
+            case GREATER -> emitByte(OpCode.GREATER);
+            case GREATER_EQUAL -> emitByte(OpCode.GREATER_EQUAL);
+            case LESS -> emitByte(OpCode.LESS);
+            case LESS_EQUAL -> emitByte(OpCode.LESS_EQUAL);
+            case BANG_EQUAL -> emitByte(OpCode.NOT_EQUAL);
+            case EQUAL_EQUAL -> emitByte(OpCode.EQUAL);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.getValue();
+        if (value == null) {
+            emitByte(OpCode.NIL);
+        } else if (Boolean.TRUE.equals(value)) {
+            emitByte(OpCode.TRUE);
+        } else if (Boolean.FALSE.equals(value)) {
+            emitByte(OpCode.FALSE);
+        } else {
+            emitConstant(value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.getRight());
+        line = expr.getOperator().getLine();
+        emitByte(expr.getOperator().getTokenType() == TokenType.MINUS ? OpCode.NEGATE : OpCode.NOT);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        load(expr.getName());
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.getLeft());
+        if (expr.getOperator().getTokenType() == TokenType.AND) {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emitByte(OpCode.POP);
+            compile(expr.getRight());
+            patchJump(endJump);
+        } else {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emitByte(OpCode.POP);
+            compile(expr.getRight());
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.getCallee() instanceof Expr.Get get) {
+            // fused property get and call, the method is not bound
+            compile(get.getObject());
+            expr.getArguments().forEach(this::compile);
+            line = expr.getParen().getLine();
+            emitByte(OpCode.INVOKE);
+            emitShort(identifierConstant(get.getName()));
+            emitByte(expr.getArguments().size());
+            return null;
+        }
+        compile(expr.getCallee());
+        expr.getArguments().forEach(this::compile);
+        line = expr.getParen().getLine();
+        emitByte(OpCode.CALL);
+        emitByte(expr.getArguments().size());
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        // the VM allocates its own locals, it runs the call
+        compile(expr.getCall());
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpr(Expr.Function expr) {
+        function(null, expr, FunctionType.FUNCTION);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.getObject());
+        line = expr.getName().getLine();
+        emitByte(OpCode.GET_PROPERTY);
+        emitShort(identifierConstant(expr.getName()));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.getObject());
+        compile(expr.getValue());
+        line = expr.getName().getLine();
+        emitByte(OpCode.SET_PROPERTY);
+        emitShort(identifierConstant(expr.getName()));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        load(expr.getKeyword());
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        load(new Token(TokenType.THIS, "this", null, expr.getKeyword().getLine()));
+        load(expr.getKeyword());
+        line = expr.getMethod().getLine();
+        emitByte(OpCode.GET_SUPER);
+        emitShort(identifierConstant(expr.getMethod()));
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.getExpression() instanceof Expr.Assignment assignment) {
+            // the nil result of the assignment would be discarded right away
+            assign(assignment);
+        } else {
+            compile(stmt.getExpression());
+        }
+        emitByte(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.getExpression());
+        emitByte(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.getName().getLine();
+        if (null != stmt.getInitializer()) {
+            compile(stmt.getInitializer());
+        } else {
+            emitConstant(Environment.uninitialized);
+        }
+        define(stmt.getName(), null == stmt.getInitializer());
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        stmt.getStatements().forEach(this::compile);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.getCondition());
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(stmt.getThenStatement());
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emitByte(OpCode.POP);
+        if (null != stmt.getElseStatement()) {
+            compile(stmt.getElseStatement());
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.getChunk().getCount();
+        current.loop = new Loop(current.scopeDepth, current.loop);
+        compile(stmt.getCondition());
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(stmt.getBody());
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emitByte(OpCode.POP);
+        // break lands after the condition is popped
+        current.loop.breakJumps.forEach(this::patchJump);
+        current.loop = current.loop.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        line = stmt.getKeyword().getLine();
+        // discard the locals of the scopes inside the loop without forgetting them at compile time
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i >= 0 && locals.get(i).depth > current.loop.scopeDepth; i--) {
+            emitByte(locals.get(i).captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+        current.loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.getName().getLine();
+        if (current.scopeDepth > 0) {
+            // a local function may refer to itself, so it is in scope before its body
+            addLocal(stmt.getName().getLexeme(), false);
+            function(stmt.getName().getLexeme(), stmt.getFunction(), FunctionType.FUNCTION);
+        } else {
+            function(stmt.getName().getLexeme(), stmt.getFunction(), FunctionType.FUNCTION);
+            define(stmt.getName(), false);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.getKeyword().getLine();
+        if (null == stmt.getValue()) {
+            emitReturn();
+        } else if (stmt.getTailCall()) {
+            Expr.Call call = (Expr.Call) stmt.getValue();
+            if (call.getCallee() instanceof Expr.Get get) {
+                compile(get.getObject());
+                call.getArguments().forEach(this::compile);
+                line = call.getParen().getLine();
+                emitByte(OpCode.TAIL_INVOKE);
+                emitShort(identifierConstant(get.getName()));
+            } else {
+                compile(call.getCallee());
+                call.getArguments().forEach(this::compile);
+                line = call.getParen().getLine();
+                emitByte(OpCode.TAIL_CALL);
+            }
+            emitByte(call.getArguments().size());
+            line = stmt.getKeyword().getLine();
+            emitByte(OpCode.RETURN);
+        } else {
+            compile(stmt.getValue());
+            emitByte(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        Token name = stmt.getName();
+        line = name.getLine();
+        emitByte(OpCode.CLASS);
+        emitShort(identifierConstant(name));
+        if (current.scopeDepth > 0) {
+            addLocal(name.getLexeme(), false);
+        } else {
+            define(name, false);
+        }
+        if (null != stmt.getSuperclass()) {
+            load(stmt.getSuperclass().getName());
+            beginScope();
+            addLocal("super", false);
+            load(name);
+            line = stmt.getSuperclass().getName().getLine();
+            emitByte(OpCode.INHERIT);
+        }
+        load(name);
+        for (Stmt.Function method : stmt.getMethods()) {
+            boolean isInit = method.getName().getLexeme().equals("init");
+            function(method.getName().getLexeme(), method.getFunction(), isInit ? FunctionType.INITIALIZER : FunctionType.METHOD);
+            emitByte(OpCode.METHOD);
+            emitShort(identifierConstant(method.getName()));
+        }
+        for (Stmt.Function method : stmt.getClassMethods()) {
+            function(method.getName().getLexeme(), method.getFunction(), FunctionType.METHOD);
+            emitByte(OpCode.CLASS_METHOD);
+            emitShort(identifierConstant(method.getName()));
+        }
+        emitByte(OpCode.POP);
+        if (null != stmt.getSuperclass()) {
+            endScope();
+        }
+        return null;
+    }
+
+    private void function(String name, Expr.Function declaration, FunctionType type) {
+        VM.ObjFunction function = new VM.ObjFunction(name, declaration.getParams().size());
+        current = new FunctionState(current, function, type);
+        beginScope();
+        declaration.getParams().forEach(param -> addLocal(param.getLexeme(), false));
+        declaration.getBody().forEach(this::compile);
+        emitReturn();
+        FunctionState state = current;
+        current = current.enclosing;
+        function.setUpvalueCount(state.upvalues.size());
+        emitByte(OpCode.CLOSURE);
+        emitShort(makeConstant(function));
+        for (Upvalue upvalue : state.upvalues) {
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitByte(upvalue.index);
+        }
+    }
+
+    /**
+     * Compiles the value and stores it in the variable, leaving it on the stack.
+     */
+    private void assign(Expr.Assignment expr) {
+        compile(expr.getValue());
+        Token name = expr.getName();
+        line = name.getLine();
+        int slot = resolveLocal(current, name.getLexeme());
+        if (slot >= 0) {
+            emitByte(OpCode.SET_LOCAL);
+            emitByte(slot);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name.getLexeme());
+        if (upvalue >= 0) {
+            emitByte(OpCode.SET_UPVALUE);
+            emitByte(upvalue);
+            return;
+        }
+        emitByte(OpCode.SET_GLOBAL);
+        emitShort(makeConstant(vm.globalCell(name.getLexeme())));
+    }
+
+    private void load(Token name) {
+        line = name.getLine();
+        int slot = resolveLocal(current, name.getLexeme());
+        if (slot >= 0) {
+            emitByte(current.locals.get(slot).checked ? OpCode.GET_LOCAL_CHECKED : OpCode.GET_LOCAL);
+            emitByte(slot);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name.getLexeme());
+        if (upvalue >= 0) {
+            emitByte(OpCode.GET_UPVALUE);
+            emitByte(upvalue);
+            return;
+        }
+        emitByte(OpCode.GET_GLOBAL);
+        emitShort(makeConstant(vm.globalCell(name.getLexeme())));
+    }
+
+    /**
+     * Binds the value on top of the stack to the declared name: it becomes a local slot inside a scope,
+     * or is popped into the global cell at the top level.
+     */
+    private void define(Token name, boolean checked) {
+        if (current.scopeDepth > 0) {
+            addLocal(name.getLexeme(), checked);
+            return;
+        }
+        emitByte(OpCode.DEFINE_GLOBAL);
+        emitShort(makeConstant(vm.globalCell(name.getLexeme())));
+    }
+
+    private void addLocal(String name, boolean checked) {
+        if (current.locals.size() == MAX_LOCALS) {
+            Lox.error(line, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth, checked));
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) {
+            return -1;
+        }
+        int local = resolveLocal(state.enclosing, name);
+        if (local >= 0) {
+            state.enclosing.locals.get(local).captured = true;
+            return addUpvalue(state, true, local);
+        }
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue >= 0) {
+            return addUpvalue(state, false, upvalue);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, boolean isLocal, int index) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.isLocal == isLocal && upvalue.index == index) {
+                return i;
+            }
+        }
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            Lox.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(new Upvalue(isLocal, index));
+        return state.upvalues.size() - 1;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emitByte(locals.get(locals.size() - 1).captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private int identifierConstant(Token name) {
+        return makeConstant(name.getLexeme());
+    }
+
+    private int makeConstant(Object value) {
+        int index = current.function.getChunk().addConstant(value);
+        if (index >= MAX_CONSTANTS) {
+            Lox.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private void emitConstant(Object value) {
+        emitByte(OpCode.CONSTANT);
+        emitShort(makeConstant(value));
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            // an initializer always returns the instance
+            emitByte(OpCode.GET_LOCAL);
+            emitByte(0);
+        } else {
+            emitByte(OpCode.NIL);
+        }
+        emitByte(OpCode.RETURN);
+    }
+
+    private int emitJump(byte instruction) {
+        emitByte(instruction);
+        emitShort(0xffff);
+        return current.function.getChunk().getCount() - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = current.function.getChunk().getCount() - offset - 2;
+        if (jump > MAX_JUMP) {
+            Lox.error(line, "Too much code to jump over.");
+        }
+        current.function.getChunk().patch(offset, (jump >> 8) & 0xff);
+        current.function.getChunk().patch(offset + 1, jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitByte(OpCode.LOOP);
+        int offset = current.function.getChunk().getCount() - loopStart + 2;
+        if (offset > MAX_JUMP) {
+            Lox.error(line, "Loop body too large.");
+        }
+        emitShort(offset);
+    }
+
+    private void emitShort(int value) {
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
+
+    private void emitByte(int value) {
+        current.function.getChunk().write(value, line);
+    }
+}
@@ -0,0 +1,74 @@
+package com.interpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled sequence of bytecode with its constant pool and, for each byte, the source line it came from.
+ */
+public class Chunk {
+    private byte[] code = new byte[64];
+    private int[] lines = new int[64];
+    private int count = 0;
+    private final List<Object> constants = new ArrayList<>();
+    // numbers, strings, cells and the uninitialized marker are stored once per chunk
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+    private Object[] constantArray;
+
+    public void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, Math.max(64, count * 2));
+            lines = Arrays.copyOf(lines, Math.max(64, count * 2));
+        }
+        code[count] = (byte) value;
+        lines[count] = line;
+        count++;
+    }
+
+    public void patch(int offset, int value) {
+        code[offset] = (byte) value;
+    }
+
+    /**
+     * @return the index of the value in the constant pool
+     */
+    public int addConstant(Object value) {
+        if (value instanceof Double || value instanceof String || value instanceof GlobalCell
+                || value == Environment.uninitialized) {
+            Integer index = constantIndices.get(value);
+            if (index != null) {
+                return index;
+            }
+            constantIndices.put(value, constants.size());
+        }
+        constants.add(value);
+        constantArray = null;
+        return constants.size() - 1;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public byte[] getCode() {
+        if (code.length != count) {
+            code = Arrays.copyOf(code, count);
+            lines = Arrays.copyOf(lines, count);
+        }
+        return code;
+    }
+
+    public Object[] getConstants() {
+        if (constantArray == null) {
+            constantArray = constants.toArray();
+        }
+        return constantArray;
+    }
+
+    public int getLine(int offset) {
+        return lines[offset];
+    }
+}
@@ -0,0 +1,737 @@
+package com.interpreters.lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Alternative execution engine: compiles the resolved syntax tree once into a tree of Java lambdas,
+ * one per node, with every decision that only depends on the tree (operator, variable depth,
+ * argument count, ...) taken at compile time. Running the program is then just calling the lambdas,
+ * without the double dispatch of the visitor or re-reading operators on every evaluation.
+ * Operator, property and call sites are {@link SpecializingNodes} that adapt to the types they see.
+ * <p>
+ * Values, environments, functions and classes are shared with {@link Interpreter}, so both engines
+ * have the same semantics and error messages.
+ */
+public class ClosureCompiler implements Expr.Visitor<ClosureCompiler.ExprNode>, Stmt.Visitor<ClosureCompiler.StmtNode> {
+    private final Interpreter interpreter;
+
+    @FunctionalInterface
+    public interface ExprNode {
+        Object eval(Environment environment);
+
+        /**
+         * Evaluates a node expected to produce a number, without boxing it when the node can
+         * compute it as a primitive.
+         */
+        default double evalDouble(Environment environment) throws UnexpectedResultException {
+            Object value = eval(environment);
+            if (value instanceof Double number) {
+                return number;
+            }
+            throw new UnexpectedResultException(value);
+        }
+
+        /**
+         * Evaluates the truthiness of a node, without boxing comparison results.
+         */
+        default boolean evalBoolean(Environment environment) {
+            return Interpreter.isTruthy(eval(environment));
+        }
+    }
+
+    @FunctionalInterface
+    public interface StmtNode {
+        Completion exec(Environment environment);
+    }
+
+    public ClosureCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    public void interpret(List<Stmt> stmts) {
+        try {
+            // top-level code runs without a local frame, like in the tree-walker
+            compile(stmts).exec(null);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    public StmtNode compile(List<Stmt> stmts) {
+        StmtNode[] nodes = stmts.stream().map(this::compile).toArray(StmtNode[]::new);
+        switch (nodes.length) {
+            case 0 -> {
+                return environment -> Completion.NORMAL;
+            }
+            case 1 -> {
+                return nodes[0];
+            }
+            case 2 -> {
+                StmtNode first = nodes[0], second = nodes[1];
+                return environment -> {
+                    Completion completion = first.exec(environment);
+                    return completion != Completion.NORMAL ? completion : second.exec(environment);
+                };
+            }
+            default -> {
+                return environment -> {
+                    for (StmtNode node : nodes) {
+                        Completion completion = node.exec(environment);
+                        if (completion != Completion.NORMAL) {
+                            return completion;
+                        }
+                    }
+                    return Completion.NORMAL;
+                };
+            }
+        }
+    }
+
+    public StmtNode compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    public ExprNode compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public ExprNode visitAssignmentExpr(Expr.Assignment expr) {
+        ExprNode value = compile(expr.getValue());
+        int depth = expr.getDepth();
+        int slot = expr.getSlot();
+        if (depth < 0) {
+            GlobalCell cell = expr.getCell();
+            Token name = expr.getName();
+            return environment -> {
+                Object result = value.eval(environment);
+                if (!cell.isDefined()) {
+                    throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+                }
+                cell.setValue(result);
+                return null;
+            };
+        }
+        if (expr.getCaptured()) {
+            return environment -> {
+                Object result = value.eval(environment);
+                ((Upvalue) environment.getAt(depth, slot)).setValue(result);
+                return null;
+            };
+        }
+        if (depth == 0) {
+            return environment -> {
+                environment.define(slot, value.eval(environment));
+                return null;
+            };
+        }
+        return environment -> {
+            environment.assignAt(depth, slot, value.eval(environment));
+            return null;
+        };
+    }
+
+    @Override
+    public ExprNode visitTernaryExpr(Expr.Ternary expr) {
+        ExprNode condition = compile(expr.getExpr());
+        ExprNode thenBranch = compile(expr.getThenBranch());
+        ExprNode elseBranch = compile(expr.getElseBranch());
+        return environment -> condition.evalBoolean(environment)
+                ? thenBranch.eval(environment) : elseBranch.eval(environment);
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        ExprNode left = compile(expr.getLeft());
+        ExprNode right = compile(expr.getRight());
+        Token operator = expr.getOperator();
+        if (expr.getNumeric()) {
+            return NumericNodes.binary(operator, left, right);
+        }
+        switch (operator.getTokenType()) {
+            case PLUS, MINUS, STAR, SLASH, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> {
+                return SpecializingNodes.binary(operator, left, right);
+            }
+            case BANG_EQUAL -> {
+                return environment -> !Interpreter.isEqual(left.eval(environment), right.eval(environment));
+            }
+            case EQUAL_EQUAL -> {
+                return environment -> Interpreter.isEqual(left.eval(environment), right.eval(environment));
+            }
+            default -> {
+                // comma: both operands are evaluated for their side effects
+                return environment -> {
+                    left.eval(environment);
+                    right.eval(environment);
+                    return null;
+                };
+            }
+        }
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.getExpression());
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.getValue();
+        if (value instanceof Double number) {
+            return new NumberLiteral(number);
+        }
+        return environment -> value;
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.getRight());
+        Token operator = expr.getOperator();
+        if (expr.getNumeric()) {
+            return NumericNodes.negate(right);
+        }
+        if (operator.getTokenType() == TokenType.MINUS) {
+            return new Negate(operator, right);
+        }
+        return new Not(right);
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        Token name = expr.getName();
+        int depth = expr.getDepth();
+        int slot = expr.getSlot();
+        if (depth < 0) {
+            GlobalCell cell = expr.getCell();
+            return environment -> {
+                Object value = cell.getValue();
+                if (GlobalCell.undefined == value) {
+                    throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+                }
+                return checkInitialized(name, value);
+            };
+        }
+        if (expr.getCaptured()) {
+            if (depth == 0) {
+                return environment -> checkInitialized(name, ((Upvalue) environment.get(slot)).getValue());
+            }
+            return environment -> checkInitialized(name, ((Upvalue) environment.getAt(depth, slot)).getValue());
+        }
+        if (depth == 0) {
+            return environment -> checkInitialized(name, environment.get(slot));
+        }
+        if (depth == 1) {
+            return environment -> checkInitialized(name, environment.getEnclosing().get(slot));
+        }
+        return environment -> checkInitialized(name, environment.getAt(depth, slot));
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = compile(expr.getLeft());
+        ExprNode right = compile(expr.getRight());
+        if (expr.getOperator().getTokenType() == TokenType.AND) {
+            return environment -> {
+                Object value = left.eval(environment);
+                return Interpreter.isTruthy(value) ? right.eval(environment) : value;
+            };
+        }
+        return environment -> {
+            Object value = left.eval(environment);
+            return Interpreter.isTruthy(value) ? value : right.eval(environment);
+        };
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        if (expr.getCallee() instanceof Expr.Get get) {
+            ExprNode object = compile(get.getObject());
+            ExprNode[] arguments = expr.getArguments().stream().map(this::compile).toArray(ExprNode[]::new);
+            return SpecializingNodes.invoke(interpreter, expr.getParen(), object, get.getName(), arguments, get.getCache());
+        }
+        ExprNode callee = compile(expr.getCallee());
+        ExprNode[] arguments = expr.getArguments().stream().map(this::compile).toArray(ExprNode[]::new);
+        return SpecializingNodes.call(interpreter, expr.getParen(), callee, arguments);
+    }
+
+    @Override
+    public ExprNode visitInlineExpr(Expr.Inline expr) {
+        Expr.Call call = expr.getCall();
+        ExprNode[] arguments = call.getArguments().stream().map(this::compile).toArray(ExprNode[]::new);
+        ExprNode body = compile(expr.getBody());
+        if (call.getCallee() instanceof Expr.Get get) {
+            return new InlineInvoke(interpreter, call.getParen(), expr.getFunction(), arguments, body, expr.getBase(),
+                    compile(get.getObject()), get.getName(), get.getCache());
+        }
+        return new InlineCall(interpreter, call.getParen(), expr.getFunction(), arguments, body, expr.getBase(),
+                compile(call.getCallee()));
+    }
+
+    @Override
+    public ExprNode visitFunctionExpr(Expr.Function expr) {
+        StmtNode body = compile(expr.getBody());
+        return environment -> new LoxFunction(null, expr, environment, false, body);
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr) {
+        ExprNode object = compile(expr.getObject());
+        return SpecializingNodes.get(object, expr.getName(), expr.getCache());
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr) {
+        ExprNode object = compile(expr.getObject());
+        ExprNode value = compile(expr.getValue());
+        return SpecializingNodes.set(object, expr.getName(), value, expr.getCache());
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        int depth = expr.getDepth();
+        int slot = expr.getSlot();
+        return environment -> environment.getAt(depth, slot);
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.Super expr) {
+        int distance = expr.getDepth();
+        int slot = expr.getSlot();
+        int thisDistance = expr.getThisDepth();
+        int thisSlot = expr.getThisSlot();
+        Token method = expr.getMethod();
+        return environment -> {
+            LoxFunction function = (LoxFunction) environment.getAt(distance, slot);
+            LoxInstance instance = (LoxInstance) environment.getAt(thisDistance, thisSlot);
+            if (function == null) {
+                throw new RuntimeError(method, "Undefined property '" + method.getLexeme() + "'.");
+            }
+            return function.bind(instance);
+        };
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        ExprNode expression = compile(stmt.getExpression());
+        return environment -> {
+            expression.eval(environment);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        ExprNode expression = compile(stmt.getExpression());
+        return environment -> {
+            System.out.println(Interpreter.stringify(expression.eval(environment)));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        ExprNode initializer = null == stmt.getInitializer() ? environment -> Environment.uninitialized : compile(stmt.getInitializer());
+        return define(stmt.getName(), stmt.getSlot(), stmt.getCaptured(), initializer);
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        if (null == stmt.getStatements() || stmt.getStatements().isEmpty()) {
+            return environment -> Completion.NORMAL;
+        }
+        StmtNode body = compile(stmt.getStatements());
+        if (!stmt.getScoped()) {
+            return body;
+        }
+        int frameSize = stmt.getFrameSize();
+        return environment -> body.exec(new Environment(environment, frameSize));
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        ExprNode condition = compile(stmt.getCondition());
+        StmtNode thenStatement = compile(stmt.getThenStatement());
+        if (null == stmt.getElseStatement()) {
+            return environment -> condition.evalBoolean(environment) ? thenStatement.exec(environment) : Completion.NORMAL;
+        }
+        StmtNode elseStatement = compile(stmt.getElseStatement());
+        return environment -> condition.evalBoolean(environment) ? thenStatement.exec(environment) : elseStatement.exec(environment);
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        ExprNode condition = compile(stmt.getCondition());
+        StmtNode body = compile(stmt.getBody());
+        Profile profile = stmt.getProfile();
+        if (null != profile) {
+            return environment -> {
+                int iterations = 0;
+                while (condition.evalBoolean(environment)) {
+                    Completion completion = body.exec(environment);
+                    if (completion == Completion.BREAK) {
+                        break;
+                    }
+                    if (completion == Completion.RETURN) {
+                        return completion;
+                    }
+                    profile.backEdge();
+                    if (++iterations == JitCompiler.osrThreshold) {
+                        Completion replaced = JitCompiler.replaceLoop(interpreter, stmt, environment);
+                        if (null != replaced) {
+                            return replaced;
+                        }
+                    }
+                }
+                return Completion.NORMAL;
+            };
+        }
+        StmtNode loop = environment -> {
+            int iterations = 0;
+            while (condition.evalBoolean(environment)) {
+                Completion completion = body.exec(environment);
+                if (completion == Completion.BREAK) {
+                    break;
+                }
+                if (completion == Completion.RETURN) {
+                    return completion;
+                }
+                if (++iterations == JitCompiler.osrThreshold) {
+                    Completion replaced = JitCompiler.replaceLoop(interpreter, stmt, environment);
+                    if (null != replaced) {
+                        return replaced;
+                    }
+                }
+            }
+            return Completion.NORMAL;
+        };
+        int frameSize = stmt.getFrameSize();
+        if (frameSize == 0) {
+            return loop;
+        }
+        // the frame of a top-level loop, shared by its iterations
+        return environment -> loop.exec(new Environment(environment, frameSize));
+    }
+
+    @Override
+    public StmtNode visitBreakStmt(Stmt.Break stmt) {
+        return environment -> Completion.BREAK;
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        String name = stmt.getName().getLexeme();
+        Expr.Function declaration = stmt.getFunction();
+        StmtNode body = compile(declaration.getBody());
+        return define(stmt.getName(), stmt.getSlot(), stmt.getCaptured(), environment -> new LoxFunction(name, declaration, environment, false, body));
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.getTailCall()) {
+            return tailCall((Expr.Call) stmt.getValue());
+        }
+        if (stmt.getValue() == null) {
+            return environment -> {
+                interpreter.setReturnValue(null);
+                return Completion.RETURN;
+            };
+        }
+        ExprNode value = compile(stmt.getValue());
+        return environment -> {
+            interpreter.setReturnValue(value.eval(environment));
+            return Completion.RETURN;
+        };
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt) {
+        String className = stmt.getName().getLexeme();
+        ExprNode superclassNode = null == stmt.getSuperclass() ? null : compile(stmt.getSuperclass());
+        Token superclassName = null == stmt.getSuperclass() ? null : stmt.getSuperclass().getName();
+        StmtNode declare = define(stmt.getName(), stmt.getSlot(), stmt.getCaptured(), environment -> Environment.uninitialized);
+        Map<String, Expr.Function> classMethods = new HashMap<>();
+        Map<String, StmtNode> classMethodBodies = new HashMap<>();
+        for (Stmt.Function method : stmt.getClassMethods()) {
+            classMethods.put(method.getName().getLexeme(), method.getFunction());
+            classMethodBodies.put(method.getName().getLexeme(), compile(method.getFunction().getBody()));
+        }
+        Map<String, Expr.Function> methods = new HashMap<>();
+        Map<String, StmtNode> methodBodies = new HashMap<>();
+        for (Stmt.Function method : stmt.getMethods()) {
+            methods.put(method.getName().getLexeme(), method.getFunction());
+            methodBodies.put(method.getName().getLexeme(), compile(method.getFunction().getBody()));
+        }
+        List<String> superMethods = stmt.getSuperMethods();
+        int slot = stmt.getSlot();
+        boolean captured = stmt.getCaptured();
+        GlobalCell cell = slot < 0 ? interpreter.globalCell(className) : null;
+        return environment -> {
+            LoxClass superclass = null;
+            if (null != superclassNode) {
+                if (!(superclassNode.eval(environment) instanceof LoxClass loxClass)) {
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+                }
+                superclass = loxClass;
+            }
+            declare.exec(environment);
+            Environment methodClosure = environment;
+            if (null != superclass) {
+                methodClosure = Interpreter.superEnvironment(environment, superclass, superMethods);
+            }
+            Map<String, LoxFunction> classFunctions = new HashMap<>();
+            for (Map.Entry<String, Expr.Function> method : classMethods.entrySet()) {
+                classFunctions.put(method.getKey(), new LoxFunction(method.getKey(), method.getValue(), methodClosure,
+                        false, classMethodBodies.get(method.getKey())));
+            }
+            LoxClass metaClass = new LoxClass(null, superclass, className + "metaclass", classFunctions);
+            Map<String, LoxFunction> functions = new HashMap<>();
+            for (Map.Entry<String, Expr.Function> method : methods.entrySet()) {
+                functions.put(method.getKey(), new LoxFunction(method.getKey(), method.getValue(), methodClosure,
+                        method.getKey().equals("init"), methodBodies.get(method.getKey())));
+            }
+            LoxClass loxClass = new LoxClass(metaClass, superclass, className, functions);
+            if (captured) {
+                ((Upvalue) environment.get(slot)).setValue(loxClass);
+            } else if (slot >= 0) {
+                environment.define(slot, loxClass);
+            } else {
+                cell.setValue(loxClass);
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    private StmtNode tailCall(Expr.Call call) {
+        ExprNode[] arguments = call.getArguments().stream().map(this::compile).toArray(ExprNode[]::new);
+        Token paren = call.getParen();
+        if (call.getCallee() instanceof Expr.Get get) {
+            ExprNode object = compile(get.getObject());
+            Token name = get.getName();
+            InlineCache cache = get.getCache();
+            return environment -> {
+                if (!(object.eval(environment) instanceof LoxInstance receiver)) {
+                    throw new RuntimeError(name, "Only instances have properties.");
+                }
+                Object target = cache.lookup(receiver, name);
+                Object[] values = SpecializingNodes.evaluateArguments(arguments, environment);
+                interpreter.setReturnValue(interpreter.tailCall(receiver, target, values, paren));
+                return Completion.RETURN;
+            };
+        }
+        ExprNode callee = compile(call.getCallee());
+        return environment -> {
+            Object function = callee.eval(environment);
+            Object[] values = SpecializingNodes.evaluateArguments(arguments, environment);
+            interpreter.setReturnValue(interpreter.tailCall(null, function, values, paren));
+            return Completion.RETURN;
+        };
+    }
+
+    private StmtNode define(Token name, int slot, boolean captured, ExprNode value) {
+        if (captured) {
+            // the upvalue comes first, see Interpreter#declareVariable
+            return environment -> {
+                Upvalue upvalue = new Upvalue(Environment.uninitialized);
+                environment.define(slot, upvalue);
+                upvalue.setValue(value.eval(environment));
+                return Completion.NORMAL;
+            };
+        }
+        if (slot >= 0) {
+            return environment -> {
+                environment.define(slot, value.eval(environment));
+                return Completion.NORMAL;
+            };
+        }
+        GlobalCell cell = interpreter.globalCell(name.getLexeme());
+        return environment -> {
+            cell.setValue(value.eval(environment));
+            return Completion.NORMAL;
+        };
+    }
+
+    private static Object checkInitialized(Token name, Object value) {
+        // challenge 8.2
+        if (Environment.uninitialized == value) {
+            throw new RuntimeError(name, "Variable must be initialized before use.");
+        }
+        return value;
+    }
+
+    private static final class NumberLiteral implements ExprNode {
+        private final Double value;
+        private final double number;
+
+        private NumberLiteral(Double value) {
+            this.value = value;
+            this.number = value;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return value;
+        }
+
+        @Override
+        public double evalDouble(Environment environment) {
+            return number;
+        }
+    }
+
+    private static final class Negate implements ExprNode {
+        private final Token operator;
+        private final ExprNode right;
+
+        private Negate(Token operator, ExprNode right) {
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object value = right.eval(environment);
+            Interpreter.checkNumberOperand(operator, value);
+            return -((double) value);
+        }
+
+        @Override
+        public double evalDouble(Environment environment) {
+            try {
+                return -right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                Object value = e.getResult();
+                Interpreter.checkNumberOperand(operator, value);
+                return -((double) value);
+            }
+        }
+    }
+
+    private static final class Not implements ExprNode {
+        private final ExprNode right;
+
+        private Not(ExprNode right) {
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return !right.evalBoolean(environment);
+        }
+
+        @Override
+        public boolean evalBoolean(Environment environment) {
+            return !right.evalBoolean(environment);
+        }
+    }
+
+    /**
+     * Inlined call site: while the callee is the inlined declaration, the receiver and the
+     * arguments are stored in the temporaries of the current frame and the copied body runs,
+     * otherwise the call is made.
+     */
+    private abstract static class InlineNode implements ExprNode {
+        // returned by bindOrCall when the body is to run
+        static final Object INLINED = new Object();
+        final Interpreter interpreter;
+        final Token paren;
+        final Expr.Function declaration;
+        final ExprNode[] arguments;
+        final ExprNode body;
+        final int base;
+
+        InlineNode(Interpreter interpreter, Token paren, Expr.Function declaration, ExprNode[] arguments,
+                   ExprNode body, int base) {
+            this.interpreter = interpreter;
+            this.paren = paren;
+            this.declaration = declaration;
+            this.arguments = arguments;
+            this.body = body;
+            this.base = base;
+        }
+
+        /**
+         * @return INLINED once the temporaries are stored, or the result of the call
+         */
+        abstract Object bindOrCall(Environment environment);
+
+        final void bindArguments(Environment environment, int slot) {
+            for (ExprNode argument : arguments) {
+                environment.define(slot++, argument.eval(environment));
+            }
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object result = bindOrCall(environment);
+            return result == INLINED ? body.eval(environment) : result;
+        }
+
+        @Override
+        public double evalDouble(Environment environment) throws UnexpectedResultException {
+            Object result = bindOrCall(environment);
+            if (result == INLINED) {
+                return body.evalDouble(environment);
+            }
+            if (result instanceof Double number) {
+                return number;
+            }
+            throw new UnexpectedResultException(result);
+        }
+
+        @Override
+        public boolean evalBoolean(Environment environment) {
+            Object result = bindOrCall(environment);
+            return result == INLINED ? body.evalBoolean(environment) : Interpreter.isTruthy(result);
+        }
+    }
+
+    private static final class InlineCall extends InlineNode {
+        private final ExprNode callee;
+
+        private InlineCall(Interpreter interpreter, Token paren, Expr.Function declaration, ExprNode[] arguments,
+                           ExprNode body, int base, ExprNode callee) {
+            super(interpreter, paren, declaration, arguments, body, base);
+            this.callee = callee;
+        }
+
+        @Override
+        Object bindOrCall(Environment environment) {
+            Object function = callee.eval(environment);
+            if (function instanceof LoxFunction loxFunction && loxFunction.isInlined(declaration)) {
+                bindArguments(environment, base);
+                return INLINED;
+            }
+            return interpreter.invoke(null, function, SpecializingNodes.evaluateArguments(arguments, environment), paren);
+        }
+    }
+
+    private static final class InlineInvoke extends InlineNode {
+        private final ExprNode object;
+        private final Token name;
+        private final InlineCache cache;
+
+        private InlineInvoke(Interpreter interpreter, Token paren, Expr.Function declaration, ExprNode[] arguments,
+                             ExprNode body, int base, ExprNode object, Token name, InlineCache cache) {
+            super(interpreter, paren, declaration, arguments, body, base);
+            this.object = object;
+            this.name = name;
+            this.cache = cache;
+        }
+
+        @Override
+        Object bindOrCall(Environment environment) {
+            if (!(object.eval(environment) instanceof LoxInstance receiver)) {
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+            Object target = cache.lookup(receiver, name);
+            if (target instanceof LoxFunction method && method.isInlined(declaration)) {
+                environment.define(base, receiver);
+                bindArguments(environment, base + 1);
+                return INLINED;
+            }
+            return interpreter.invoke(receiver, target, SpecializingNodes.evaluateArguments(arguments, environment), paren);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.interpreters.lox;
+
+/**
+ * How the execution of a statement ended. A break or a return is signalled through the result
+ * of the statement rather than thrown: blocks stop at the first statement that does not complete
+ * normally and hand its completion up to the enclosing loop or function. The returned value
+ * itself is kept by the {@link Interpreter} until the function picks it up.
+ */
+public enum Completion {
+    NORMAL, BREAK, RETURN
+}
@@ -1,71 +1,48 @@
 package com.interpreters.lox;
 
-import javax.swing.*;
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * One runtime frame of local variables. The resolver gives every local a (depth, slot) pair
+ * and every scope a frame size, so loads and stores are plain array accesses. The frame of a
+ * call encloses the upvalues of its function, the values a closure copied when it was created.
+ */
 public class Environment {
     public static final Object uninitialized = new Object();
     private final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
-
-    public Environment() {
-        enclosing = null;
-    }
+    private final Object[] values;
 
-    public Environment(Environment enclosing) {
+    public Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.values = new Object[size];
     }
 
     public Environment getEnclosing() {
         return enclosing;
     }
 
-    public void define(String name, Object value) {
-        values.put(name, null == value ? uninitialized : value);
+    public int size() {
+        return values.length;
     }
 
-    public void assign(Token name, Object value) {
-        if (values.containsKey(name.getLexeme())) {
-            values.put(name.getLexeme(), value);
-            return;
-        }
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-        throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+    public void define(int slot, Object value) {
+        values[slot] = value;
     }
 
-    public Object get(Token name) {
-        if (values.containsKey(name.getLexeme())) {
-            Object value = values.get(name.getLexeme());
-            // challenge 8.2
-            if (uninitialized == value) {
-                throw new RuntimeError(name, "Variable must be initialized before use.");
-            }
-            return value;
-        }
-        if (null != enclosing) {
-            return enclosing.get(name);
-        }
-        throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+    public Object get(int slot) {
+        return values[slot];
     }
 
-    public Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    public Object getAt(int distance, int slot) {
+        return ancestor(distance).values[slot];
     }
 
-    public void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.getLexeme(), value);
+    public void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).values[slot] = value;
     }
 
     private Environment ancestor(int distance) {
         Environment environment = this;
         for (int i = 0; i < distance; i++) {
-            if (environment != null) {
-                environment = environment.enclosing;
-            }
+            environment = environment.enclosing;
         }
         return environment;
     }
@@ -22,6 +22,8 @@ public abstract class Expr {
 
 		R visitCallExpr(Call expr);
 
+		R visitInlineExpr(Inline expr);
+
 		R visitFunctionExpr(Function expr);
 
 		R visitGetExpr(Get expr);
@@ -40,6 +42,10 @@ public abstract class Expr {
 	public static class Assignment extends Expr {
 		private final Token name;
 		private final Expr value;
+		private int depth = -1;
+		private int slot;
+		private GlobalCell cell;
+		private boolean captured;
 
 		public Assignment(Token name, Expr value) {
 			this.name = name;
@@ -59,6 +65,38 @@ public abstract class Expr {
 			return value;
 		}
 
+		public int getDepth() {
+			return depth;
+		}
+
+		public void setDepth(int depth) {
+			this.depth = depth;
+		}
+
+		public int getSlot() {
+			return slot;
+		}
+
+		public void setSlot(int slot) {
+			this.slot = slot;
+		}
+
+		public GlobalCell getCell() {
+			return cell;
+		}
+
+		public void setCell(GlobalCell cell) {
+			this.cell = cell;
+		}
+
+		public boolean getCaptured() {
+			return captured;
+		}
+
+		public void setCaptured(boolean captured) {
+			this.captured = captured;
+		}
+
 	}
 
 	public static class Ternary extends Expr {
@@ -95,6 +133,7 @@ public abstract class Expr {
 		private final Expr left;
 		private final Token operator;
 		private final Expr right;
+		private boolean numeric;
 
 		public Binary(Expr left, Token operator, Expr right) {
 			this.left = left;
@@ -119,6 +158,14 @@ public abstract class Expr {
 			return right;
 		}
 
+		public boolean getNumeric() {
+			return numeric;
+		}
+
+		public void setNumeric(boolean numeric) {
+			this.numeric = numeric;
+		}
+
 	}
 
 	public static class Grouping extends Expr {
@@ -160,6 +207,7 @@ public abstract class Expr {
 	public static class Unary extends Expr {
 		private final Token operator;
 		private final Expr right;
+		private boolean numeric;
 
 		public Unary(Token operator, Expr right) {
 			this.operator = operator;
@@ -179,10 +227,22 @@ public abstract class Expr {
 			return right;
 		}
 
+		public boolean getNumeric() {
+			return numeric;
+		}
+
+		public void setNumeric(boolean numeric) {
+			this.numeric = numeric;
+		}
+
 	}
 
 	public static class Variable extends Expr {
 		private final Token name;
+		private int depth = -1;
+		private int slot;
+		private GlobalCell cell;
+		private boolean captured;
 
 		public Variable(Token name) {
 			this.name = name;
@@ -197,6 +257,38 @@ public abstract class Expr {
 			return name;
 		}
 
+		public int getDepth() {
+			return depth;
+		}
+
+		public void setDepth(int depth) {
+			this.depth = depth;
+		}
+
+		public int getSlot() {
+			return slot;
+		}
+
+		public void setSlot(int slot) {
+			this.slot = slot;
+		}
+
+		public GlobalCell getCell() {
+			return cell;
+		}
+
+		public void setCell(GlobalCell cell) {
+			this.cell = cell;
+		}
+
+		public boolean getCaptured() {
+			return captured;
+		}
+
+		public void setCaptured(boolean captured) {
+			this.captured = captured;
+		}
+
 	}
 
 	public static class Logical extends Expr {
@@ -259,9 +351,64 @@ public abstract class Expr {
 
 	}
 
+	public static class Inline extends Expr {
+		private final Expr.Call call;
+		private final Expr.Function function;
+		private final Expr body;
+		private int base;
+		private boolean missed;
+
+		public Inline(Expr.Call call, Expr.Function function, Expr body) {
+			this.call = call;
+			this.function = function;
+			this.body = body;
+		}
+
+		@Override
+		public <R> R accept(Visitor<R> visitor) {
+			return visitor.visitInlineExpr(this);
+		}
+
+		public Expr.Call getCall() {
+			return call;
+		}
+
+		public Expr.Function getFunction() {
+			return function;
+		}
+
+		public Expr getBody() {
+			return body;
+		}
+
+		public int getBase() {
+			return base;
+		}
+
+		public void setBase(int base) {
+			this.base = base;
+		}
+
+		public boolean getMissed() {
+			return missed;
+		}
+
+		public void setMissed(boolean missed) {
+			this.missed = missed;
+		}
+
+	}
+
 	public static class Function extends Expr {
 		private final List<Token> params;
 		private final List<Stmt> body;
+		private int frameSize;
+		private int firstParam;
+		private Profile profile = new Profile();
+		private boolean closures;
+		private int[] captureDepths = new int[0];
+		private int[] captureSlots = new int[0];
+		private int[] capturedParams = new int[0];
 
 		public Function(List<Token> params, List<Stmt> body) {
 			this.params = params;
@@ -281,11 +428,68 @@ public abstract class Expr {
 			return body;
 		}
 
+		public int getFrameSize() {
+			return frameSize;
+		}
+
+		public void setFrameSize(int frameSize) {
+			this.frameSize = frameSize;
+		}
+
+		public int getFirstParam() {
+			return firstParam;
+		}
+
+		public void setFirstParam(int firstParam) {
+			this.firstParam = firstParam;
+		}
+
+		public Profile getProfile() {
+			return profile;
+		}
+
+		public void setProfile(Profile profile) {
+			this.profile = profile;
+		}
+
+		public boolean getClosures() {
+			return closures;
+		}
+
+		public void setClosures(boolean closures) {
+			this.closures = closures;
+		}
+
+		public int[] getCaptureDepths() {
+			return captureDepths;
+		}
+
+		public void setCaptureDepths(int[] captureDepths) {
+			this.captureDepths = captureDepths;
+		}
+
+		public int[] getCaptureSlots() {
+			return captureSlots;
+		}
+
+		public void setCaptureSlots(int[] captureSlots) {
+			this.captureSlots = captureSlots;
+		}
+
+		public int[] getCapturedParams() {
+			return capturedParams;
+		}
+
+		public void setCapturedParams(int[] capturedParams) {
+			this.capturedParams = capturedParams;
+		}
+
 	}
 
 	public static class Get extends Expr {
 		private final Expr object;
 		private final Token name;
+		private InlineCache cache = new InlineCache();
 
 		public Get(Expr object, Token name) {
 			this.object = object;
@@ -305,12 +509,21 @@ public abstract class Expr {
 			return name;
 		}
 
+		public InlineCache getCache() {
+			return cache;
+		}
+
+		public void setCache(InlineCache cache) {
+			this.cache = cache;
+		}
+
 	}
 
 	public static class Set extends Expr {
 		private final Expr object;
 		private final Token name;
 		private final Expr value;
+		private InlineCache cache = new InlineCache();
 
 		public Set(Expr object, Token name, Expr value) {
 			this.object = object;
@@ -335,10 +548,20 @@ public abstract class Expr {
 			return value;
 		}
 
+		public InlineCache getCache() {
+			return cache;
+		}
+
+		public void setCache(InlineCache cache) {
+			this.cache = cache;
+		}
+
 	}
 
 	public static class This extends Expr {
 		private final Token keyword;
+		private int depth = -1;
+		private int slot;
 
 		public This(Token keyword) {
 			this.keyword = keyword;
@@ -353,11 +576,31 @@ public abstract class Expr {
 			return keyword;
 		}
 
+		public int getDepth() {
+			return depth;
+		}
+
+		public void setDepth(int depth) {
+			this.depth = depth;
+		}
+
+		public int getSlot() {
+			return slot;
+		}
+
+		public void setSlot(int slot) {
+			this.slot = slot;
+		}
+
 	}
 
 	public static class Super extends Expr {
 		private final Token keyword;
 		private final Token method;
+		private int depth = -1;
+		private int slot;
+		private int thisDepth;
+		private int thisSlot;
 
 		public Super(Token keyword, Token method) {
 			this.keyword = keyword;
@@ -377,6 +620,38 @@ public abstract class Expr {
 			return method;
 		}
 
+		public int getDepth() {
+			return depth;
+		}
+
+		public void setDepth(int depth) {
+			this.depth = depth;
+		}
+
+		public int getSlot() {
+			return slot;
+		}
+
+		public void setSlot(int slot) {
+			this.slot = slot;
+		}
+
+		public int getThisDepth() {
+			return thisDepth;
+		}
+
+		public void setThisDepth(int thisDepth) {
+			this.thisDepth = thisDepth;
+		}
+
+		public int getThisSlot() {
+			return thisSlot;
+		}
+
+		public void setThisSlot(int thisSlot) {
+			this.thisSlot = thisSlot;
+		}
+
 	}
 
 }
@@ -0,0 +1,33 @@
+package com.interpreters.lox;
+
+/**
+ * The binding of one global variable. Each global name is bound to exactly one cell for the
+ * lifetime of the interpreter, so variable sites can keep the cell instead of hashing the name
+ * on every access. Defining the name again (e.g. in the REPL) just overwrites the value.
+ */
+public class GlobalCell {
+    // value of a name that is referenced but not (yet) defined
+    public static final Object undefined = new Object();
+    private final String name;
+    private Object value = undefined;
+
+    public GlobalCell(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public void setValue(Object value) {
+        this.value = value;
+    }
+
+    public boolean isDefined() {
+        return value != undefined;
+    }
+}
@@ -0,0 +1,98 @@
+package com.interpreters.lox;
+
+/**
+ * Per-site cache of property accesses, keyed on the receiver's {@link Shape}. Since every class
+ * has its own root shape, a shape also determines the class, so a cached entry resolves a read to
+ * a field slot or a method, and a write to a slot or a shape transition, without hashing the name.
+ * The cache holds up to {@link #POLYMORPHIC_LIMIT} shapes; a site that sees more is megamorphic
+ * and looks further shapes up on every access, as do instances that keep their fields in a map.
+ */
+public class InlineCache {
+    static final int POLYMORPHIC_LIMIT = 4;
+    private final Shape[] shapes = new Shape[POLYMORPHIC_LIMIT];
+    // field slot of each shape, or -1 for a read that finds a method or nothing
+    private final int[] slots = new int[POLYMORPHIC_LIMIT];
+    // reads: the method found, or null; writes: the shape after adding the field, or null when it exists
+    private final Object[] targets = new Object[POLYMORPHIC_LIMIT];
+    private int size = 0;
+
+    public Object get(LoxInstance instance, Token name) {
+        Object value = lookup(instance, name);
+        if (value instanceof LoxFunction method && method.isUnbound()) {
+            return method.bind(instance);
+        }
+        return value;
+    }
+
+    /**
+     * Reads the property like {@link #get} but leaves a method unbound, for a call site to invoke
+     * it with the receiver directly.
+     */
+    public Object lookup(LoxInstance instance, Token name) {
+        Shape shape = instance.getShape();
+        if (null == shape) {
+            return instance.lookup(name);
+        }
+        int entry = find(shape);
+        if (entry < 0) {
+            int slot = shape.slotOf(name.getLexeme());
+            entry = add(shape, slot, slot < 0 ? instance.getLoxClass().findMethod(name.getLexeme()) : null);
+            if (entry < 0) {
+                return instance.lookup(name);
+            }
+        }
+        if (slots[entry] >= 0) {
+            return instance.getSlot(slots[entry]);
+        }
+        Object method = targets[entry];
+        if (null == method) {
+            throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "'.");
+        }
+        return method;
+    }
+
+    public void set(LoxInstance instance, Token name, Object value) {
+        Shape shape = instance.getShape();
+        if (null == shape) {
+            instance.set(name, value);
+            return;
+        }
+        int entry = find(shape);
+        if (entry < 0) {
+            int slot = shape.slotOf(name.getLexeme());
+            Shape next = slot < 0 ? shape.withField(name.getLexeme()) : null;
+            entry = slot >= 0 || null != next ? add(shape, slot, next) : -1;
+            if (entry < 0) {
+                instance.set(name, value);
+                return;
+            }
+        }
+        if (slots[entry] >= 0) {
+            instance.setSlot(slots[entry], value);
+        } else {
+            instance.addField((Shape) targets[entry], value);
+        }
+    }
+
+    private int find(Shape shape) {
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the new entry, or -1 if the site is megamorphic
+     */
+    private int add(Shape shape, int slot, Object target) {
+        if (size == POLYMORPHIC_LIMIT) {
+            return -1;
+        }
+        shapes[size] = shape;
+        slots[size] = slot;
+        targets[size] = target;
+        return size++;
+    }
+}
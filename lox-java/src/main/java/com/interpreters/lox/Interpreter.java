@@ -5,20 +5,31 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    private final Environment global = new Environment();
-    private Environment environment = global;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    private final Map<String, GlobalCell> globals = new HashMap<>();
+    // null while executing top-level code
+    private Environment environment = null;
+    // value of the return statement that completed last, until the function takes it
+    private Object returnValue = null;
+    // call left by a return statement in tail position, made by the trampoline of LoxFunction
+    private LoxFunction tailCallee = null;
+    private LoxInstance tailReceiver = null;
+    private Object[] tailArguments = null;
 
     public Interpreter() {
-        global.define("clock", new LoxCallable() {
+        globalCell("clock").setValue(new LoxCallable() {
             @Override
             public int arity() {
                 return 0;
             }
 
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call(Interpreter interpreter, Object[] arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
                 return System.currentTimeMillis() / 1000.0;
             }
 
@@ -29,30 +40,64 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         });
     }
 
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    /**
+     * Binds a global name to its cell, creating the cell the first time the name is seen.
+     * Called by the resolver for every global variable site, before the global is defined.
+     */
+    public GlobalCell globalCell(String name) {
+        return globals.computeIfAbsent(name, GlobalCell::new);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.getLexeme());
+    private Object lookUpVariable(Token name, int depth, int slot, GlobalCell cell, boolean captured) {
+        Object value;
+        if (depth >= 0) {
+            value = environment.getAt(depth, slot);
+            if (captured) {
+                value = ((Upvalue) value).getValue();
+            }
         } else {
-            return global.get(name);
+            value = cell.getValue();
+            if (GlobalCell.undefined == value) {
+                throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+            }
+        }
+        // challenge 8.2
+        if (Environment.uninitialized == value) {
+            throw new RuntimeError(name, "Variable must be initialized before use.");
         }
+        return value;
     }
 
-    private void assignVariable(Token name, Expr expr, Object value) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, name, value);
+    private void assignVariable(Token name, int depth, int slot, GlobalCell cell, boolean captured, Object value) {
+        if (captured) {
+            ((Upvalue) environment.getAt(depth, slot)).setValue(value);
+        } else if (depth >= 0) {
+            environment.assignAt(depth, slot, value);
+        } else if (cell.isDefined()) {
+            cell.setValue(value);
         } else {
-            global.assign(name, value);
+            throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
         }
     }
 
-    public Environment getGlobalEnv() {
-        return global;
+    /**
+     * Gives a captured local a new upvalue before its initializer runs, so the closures created
+     * by the initializer, such as a local function's own, capture the upvalue too.
+     */
+    private void declareVariable(int slot, boolean captured) {
+        if (captured) {
+            environment.define(slot, new Upvalue(Environment.uninitialized));
+        }
+    }
+
+    private void defineVariable(Token name, int slot, boolean captured, Object value) {
+        if (captured) {
+            ((Upvalue) environment.get(slot)).setValue(value);
+        } else if (slot >= 0) {
+            environment.define(slot, value);
+        } else {
+            globalCell(name.getLexeme()).setValue(value);
+        }
     }
 
     public void interpret(Expr expr) {
@@ -77,7 +122,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitAssignmentExpr(Expr.Assignment expr) {
         Object value = evaluate(expr.getValue());
-        assignVariable(expr.getName(), expr, value);
+        assignVariable(expr.getName(), expr.getDepth(), expr.getSlot(), expr.getCell(), expr.getCaptured(), value);
         return null;
     }
 
@@ -95,14 +140,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.getLeft());
         Object right = evaluate(expr.getRight());
+        if (expr.getNumeric()) {
+            return numeric(expr.getOperator(), (double) left, (double) right);
+        }
         switch (expr.getOperator().getTokenType()) {
             case PLUS -> {
                 if (left instanceof Double leftDouble && right instanceof Double rightDouble) {
                     return leftDouble + rightDouble;
                 }
                 // challenge 7.2
-                if (left instanceof String || right instanceof String) {
-                    return stringify(left) + stringify(right);
+                if (left instanceof CharSequence || right instanceof CharSequence) {
+                    return LoxString.concat(left, right);
                 }
                 throw new RuntimeError(expr.getOperator(), "Operands must be two numbers or two strings or at least one strings.");
             }
@@ -146,9 +194,29 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    /**
+     * Operators whose operands the type inference proved to be numbers.
+     */
+    static Object numeric(Token operator, double left, double right) {
+        return switch (operator.getTokenType()) {
+            case PLUS -> left + right;
+            case MINUS -> left - right;
+            case STAR -> left * right;
+            case SLASH -> {
+                checkDivideZero(operator, right);
+                yield left / right;
+            }
+            case GREATER -> left > right;
+            case GREATER_EQUAL -> left >= right;
+            case LESS -> left < right;
+            case LESS_EQUAL -> left <= right;
+            default -> throw new IllegalStateException("Not a numeric operator: " + operator.getLexeme());
+        };
+    }
+
     @Override
     public Object visitGroupingExpr(Expr.Grouping expr) {
-        return evaluate(expr);
+        return evaluate(expr.getExpression());
     }
 
     @Override
@@ -159,6 +227,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.getRight());
+        if (expr.getNumeric()) {
+            return -((double) right);
+        }
         switch (expr.getOperator().getTokenType()) {
             case MINUS -> {
                 checkNumberOperand(expr.getOperator(), right);
@@ -173,7 +244,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.getName(), expr);
+        return lookUpVariable(expr.getName(), expr.getDepth(), expr.getSlot(), expr.getCell(), expr.getCaptured());
     }
 
     @Override
@@ -190,15 +261,126 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.getCallee());
-        List<Object> arguments = expr.getArguments().stream().map(this::evaluate).toList();
+        Object callee;
+        LoxInstance receiver = null;
+        if (expr.getCallee() instanceof Expr.Get get) {
+            // method call: look the method up without binding it to a new function
+            receiver = receiverOf(get);
+            callee = get.getCache().lookup(receiver, get.getName());
+        } else {
+            callee = evaluate(expr.getCallee());
+        }
+        List<Expr> arguments = expr.getArguments();
+        Token paren = expr.getParen();
+        // arguments are passed one by one to the fixed-arity entry points
+        switch (arguments.size()) {
+            case 0 -> {
+                LoxCallable callable = callable(callee, 0, paren);
+                return callable instanceof LoxFunction method && method.isUnbound()
+                        ? method.invoke0(this, receiver) : callable.call0(this);
+            }
+            case 1 -> {
+                Object a1 = evaluate(arguments.get(0));
+                LoxCallable callable = callable(callee, 1, paren);
+                return callable instanceof LoxFunction method && method.isUnbound()
+                        ? method.invoke1(this, receiver, a1) : callable.call1(this, a1);
+            }
+            case 2 -> {
+                Object a1 = evaluate(arguments.get(0));
+                Object a2 = evaluate(arguments.get(1));
+                LoxCallable callable = callable(callee, 2, paren);
+                return callable instanceof LoxFunction method && method.isUnbound()
+                        ? method.invoke2(this, receiver, a1, a2) : callable.call2(this, a1, a2);
+            }
+            case 3 -> {
+                Object a1 = evaluate(arguments.get(0));
+                Object a2 = evaluate(arguments.get(1));
+                Object a3 = evaluate(arguments.get(2));
+                LoxCallable callable = callable(callee, 3, paren);
+                return callable instanceof LoxFunction method && method.isUnbound()
+                        ? method.invoke3(this, receiver, a1, a2, a3) : callable.call3(this, a1, a2, a3);
+            }
+            case 4 -> {
+                Object a1 = evaluate(arguments.get(0));
+                Object a2 = evaluate(arguments.get(1));
+                Object a3 = evaluate(arguments.get(2));
+                Object a4 = evaluate(arguments.get(3));
+                LoxCallable callable = callable(callee, 4, paren);
+                return callable instanceof LoxFunction method && method.isUnbound()
+                        ? method.invoke4(this, receiver, a1, a2, a3, a4) : callable.call4(this, a1, a2, a3, a4);
+            }
+            default -> {
+                Object[] values = new Object[arguments.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = evaluate(arguments.get(i));
+                }
+                return invoke(receiver, callee, values, paren);
+            }
+        }
+    }
+
+    @Override
+    public Object visitInlineExpr(Expr.Inline expr) {
+        Expr.Call call = expr.getCall();
+        LoxInstance receiver = null;
+        Object callee;
+        if (call.getCallee() instanceof Expr.Get get) {
+            receiver = receiverOf(get);
+            callee = get.getCache().lookup(receiver, get.getName());
+        } else {
+            callee = evaluate(call.getCallee());
+        }
+        List<Expr> arguments = call.getArguments();
+        if (!(callee instanceof LoxFunction function && function.isInlined(expr.getFunction()))) {
+            // the name is bound to something else now
+            Object[] values = new Object[arguments.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = evaluate(arguments.get(i));
+            }
+            return invoke(receiver, callee, values, call.getParen());
+        }
+        // the receiver and the arguments go to the temporaries of the current frame
+        int slot = expr.getBase();
+        if (null != receiver) {
+            environment.define(slot++, receiver);
+        }
+        for (Expr argument : arguments) {
+            environment.define(slot++, evaluate(argument));
+        }
+        return evaluate(expr.getBody());
+    }
+
+    private LoxInstance receiverOf(Expr.Get get) {
+        Object object = evaluate(get.getObject());
+        if (!(object instanceof LoxInstance loxInstance)) {
+            throw new RuntimeError(get.getName(), "Only instances have properties.");
+        }
+        return loxInstance;
+    }
+
+    /**
+     * Calls a property read by {@link InlineCache#lookup}: an unbound method runs with the receiver
+     * in its frame, anything else is called like any other callee.
+     */
+    Object invoke(LoxInstance receiver, Object target, Object[] arguments, Token paren) {
+        LoxCallable callable = callable(target, arguments.length, paren);
+        if (callable instanceof LoxFunction method && method.isUnbound()) {
+            return method.invoke(this, receiver, arguments);
+        }
+        return callable.call(this, arguments);
+    }
+
+    /**
+     * @return the callee, once checked to be callable with that many arguments
+     */
+    static LoxCallable callable(Object callee, int argumentCount, Token paren) {
         if (!(callee instanceof LoxCallable loxCallable)) {
-            throw new RuntimeError(expr.getParen(), "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
-        if (loxCallable.arity() != arguments.size()) {
-            throw new RuntimeError(expr.getParen(), String.format("Expect %d arguments but got %d.", loxCallable.arity(), arguments.size()));
+        if (loxCallable.arity() != argumentCount) {
+            throw new RuntimeError(paren, String.format("Expect %d arguments but got %d.", loxCallable.arity(), argumentCount));
         }
-        return loxCallable.call(this, arguments);
+        return loxCallable;
     }
 
     @Override
@@ -210,7 +392,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.getObject());
         if (object instanceof LoxInstance loxInstance) {
-            return loxInstance.get(expr.getName());
+            return expr.getCache().get(loxInstance, expr.getName());
         }
         throw new RuntimeError(expr.getName(), "Only instances have properties.");
     }
@@ -220,7 +402,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object object = evaluate(expr.getObject());
         if (object instanceof LoxInstance loxInstance) {
             Object value = evaluate(expr.getValue());
-            loxInstance.set(expr.getName(), value);
+            expr.getCache().set(loxInstance, expr.getName(), value);
             return value;
         }
         throw new RuntimeError(expr.getName(), "Only instances have properties.");
@@ -228,15 +410,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.getKeyword(), expr);
+        return lookUpVariable(expr.getKeyword(), expr.getDepth(), expr.getSlot(), null, false);
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-        LoxInstance instance = (LoxInstance) environment.getAt(distance - 1, "this");
-        LoxFunction method = superclass.findMethod(expr.getMethod().getLexeme());
+        LoxFunction method = (LoxFunction) environment.getAt(expr.getDepth(), expr.getSlot());
+        LoxInstance instance = (LoxInstance) environment.getAt(expr.getThisDepth(), expr.getThisSlot());
         if (method == null) {
             throw new RuntimeError(expr.getMethod(), "Undefined property '" + expr.getMethod().getLexeme() + "'.");
         }
@@ -244,82 +424,181 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.getExpression());
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object object = evaluate(stmt.getExpression());
         System.out.println(stringify(object));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
-        Object value = null;
+    public Completion visitVarStmt(Stmt.Var stmt) {
+        declareVariable(stmt.getSlot(), stmt.getCaptured());
+        Object value = Environment.uninitialized;
         if (null != stmt.getInitializer()) {
             value = evaluate(stmt.getInitializer());
         }
-        environment.define(stmt.getName().getLexeme(), value);
-        return null;
+        defineVariable(stmt.getName(), stmt.getSlot(), stmt.getCaptured(), value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
+    public Completion visitBlockStmt(Stmt.Block stmt) {
         if (null == stmt.getStatements() || stmt.getStatements().isEmpty()) {
-            return null;
+            return Completion.NORMAL;
         }
-        executeBlock(stmt.getStatements(), new Environment(environment));
-        return null;
+        Environment frame = stmt.getScoped() ? new Environment(environment, stmt.getFrameSize()) : environment;
+        return executeBlock(stmt.getStatements(), frame);
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.getCondition()))) {
-            execute(stmt.getThenStatement());
+            return execute(stmt.getThenStatement());
         } else if (null != stmt.getElseStatement()) {
-            execute(stmt.getElseStatement());
+            return execute(stmt.getElseStatement());
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        if (stmt.getFrameSize() == 0) {
+            return loop(stmt);
+        }
+        // the frame of a top-level loop, shared by its iterations
+        Environment previous = environment;
         try {
-            while (isTruthy(evaluate(stmt.getCondition()))) {
-                execute(stmt.getBody());
+            environment = new Environment(environment, stmt.getFrameSize());
+            return loop(stmt);
+        } finally {
+            environment = previous;
+        }
+    }
+
+    private Completion loop(Stmt.While stmt) {
+        Profile profile = stmt.getProfile();
+        int iterations = 0;
+        while (isTruthy(evaluate(stmt.getCondition()))) {
+            Completion completion = execute(stmt.getBody());
+            if (completion == Completion.BREAK) {
+                break;
+            }
+            if (completion == Completion.RETURN) {
+                return completion;
+            }
+            if (null != profile) {
+                profile.backEdge();
+            }
+            if (++iterations == JitCompiler.osrThreshold) {
+                Completion replaced = JitCompiler.replaceLoop(this, stmt, environment);
+                if (null != replaced) {
+                    return replaced;
+                }
             }
-        } catch (BreakException breakException) {
-            // do nothing
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new BreakException();
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        declareVariable(stmt.getSlot(), stmt.getCaptured());
         LoxFunction function = new LoxFunction(stmt.getName().getLexeme(), stmt.getFunction(), environment, false);
-        environment.define(stmt.getName().getLexeme(), function);
-        return null;
+        defineVariable(stmt.getName(), stmt.getSlot(), stmt.getCaptured(), function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.getTailCall()) {
+            Expr.Call call = (Expr.Call) stmt.getValue();
+            Object callee;
+            LoxInstance receiver = null;
+            if (call.getCallee() instanceof Expr.Get get) {
+                receiver = receiverOf(get);
+                callee = get.getCache().lookup(receiver, get.getName());
+            } else {
+                callee = evaluate(call.getCallee());
+            }
+            Object[] arguments = new Object[call.getArguments().size()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = evaluate(call.getArguments().get(i));
+            }
+            returnValue = tailCall(receiver, callee, arguments, call.getParen());
+            return Completion.RETURN;
+        }
         Object value = null;
         if (stmt.getValue() != null) {
             value = evaluate(stmt.getValue());
         }
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
+    }
+
+    /**
+     * @return the value of the return statement that just completed, forgetting it
+     */
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    void setReturnValue(Object value) {
+        returnValue = value;
+    }
+
+    /**
+     * Leaves a call to a Lox function for the trampoline of the function returning, so it runs
+     * once the returning function's Java frames are gone. Other callables are called right away.
+     *
+     * @return {@link LoxFunction#tailCall} for a pending call, or the result of the call
+     */
+    Object tailCall(LoxInstance receiver, Object callee, Object[] arguments, Token paren) {
+        LoxCallable callable = callable(callee, arguments.length, paren);
+        if (!(callable instanceof LoxFunction function)) {
+            return callable.call(this, arguments);
+        }
+        tailCallee = function;
+        tailReceiver = receiver;
+        tailArguments = arguments;
+        return LoxFunction.tailCall;
+    }
+
+    /**
+     * Takes the pending call with the receiver and the arguments, so the interpreter does not keep
+     * them reachable after the trampoline made the call.
+     */
+    LoxFunction takeTailCallee() {
+        LoxFunction callee = tailCallee;
+        tailCallee = null;
+        return callee;
+    }
+
+    LoxInstance takeTailReceiver() {
+        LoxInstance receiver = tailReceiver;
+        tailReceiver = null;
+        return receiver;
+    }
+
+    Object[] takeTailArguments() {
+        Object[] arguments = tailArguments;
+        tailArguments = null;
+        return arguments;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
         // check supper class
         Object superclass = null;
         if (null != stmt.getSuperclass()) {
@@ -329,14 +608,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
         // two-stage variable binding process allows references to the class inside its own methods.
-        environment.define(stmt.getName().getLexeme(), null);
+        declareVariable(stmt.getSlot(), stmt.getCaptured());
+        defineVariable(stmt.getName(), stmt.getSlot(), stmt.getCaptured(), Environment.uninitialized);
 
         // Those will capture the current environment—the one where we just bound “super”—as their closure,
         // holding on to the superclass like we need.
         // Once that’s done, we pop the environment.
         if (null != superclass) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = superEnvironment(environment, (LoxClass) superclass, stmt.getSuperMethods());
         }
 
         Map<String, LoxFunction> classMethods = new HashMap<>();
@@ -357,29 +636,48 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (null != superclass) {
             environment = environment.getEnclosing();
         }
-        environment.assign(stmt.getName(), loxClass);
-        return null;
+        defineVariable(stmt.getName(), stmt.getSlot(), stmt.getCaptured(), loxClass);
+        return Completion.NORMAL;
+    }
+
+    /**
+     * Creates the frame of "super": the superclass, then the methods "super." expressions of the
+     * class's methods refer to, looked up once here rather than on every access.
+     */
+    static Environment superEnvironment(Environment enclosing, LoxClass superclass, List<String> superMethods) {
+        Environment environment = new Environment(enclosing, 1 + superMethods.size());
+        environment.define(0, superclass);
+        for (int i = 0; i < superMethods.size(); i++) {
+            environment.define(i + 1, superclass.findMethod(superMethods.get(i)));
+        }
+        return environment;
     }
 
-    public void executeBlock(List<Stmt> body, Environment environment) {
+    public Completion executeBlock(List<Stmt> body, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
-            body.forEach(this::execute);
+            for (Stmt stmt : body) {
+                Completion completion = execute(stmt);
+                if (completion != Completion.NORMAL) {
+                    return completion;
+                }
+            }
+            return Completion.NORMAL;
         } finally {
             this.environment = previous;
         }
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
     private Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (null == object) {
             return false;
         }
@@ -389,37 +687,51 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) {
             return true;
         }
         if (a == null) {
             return false;
         }
+        // a literal and a rope with the same characters
+        if (a instanceof CharSequence && b instanceof CharSequence) {
+            return a.toString().equals(b.toString());
+        }
         return a.equals(b);
     }
 
-    private void checkDivideZero(Token operator, Object right) {
-        if (right instanceof Double doubleRight && doubleRight.compareTo(0.0) == 0) {
+    static void checkDivideZero(Token operator, Object right) {
+        if (right instanceof Double doubleRight) {
+            checkDivideZero(operator, (double) doubleRight);
+        }
+    }
+
+    /**
+     * Checks a divisor known to be a number without boxing it. Like {@link Double#compareTo}, only
+     * 0.0 is zero: -0.0 divides.
+     */
+    static void checkDivideZero(Token operator, double right) {
+        if (Double.compare(right, 0.0) == 0) {
             throw new RuntimeError(operator, "Cannot divide by zero");
         }
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) {
             return;
         }
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperand(Token operator, Object left, Object right) {
+    static void checkNumberOperand(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) {
             return;
         }
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) {
             return "nil";
         }
@@ -432,8 +744,4 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
         return object.toString();
     }
-
-    private static class BreakException extends RuntimeException {
-
-    }
 }
@@ -0,0 +1,889 @@
+package com.interpreters.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static com.interpreters.lox.JvmClassWriter.*;
+
+/**
+ * Compiles hot Lox function bodies to JVM bytecode. A body becomes a hidden class implementing
+ * {@link CompiledBody}: the function's locals live in JVM locals and global cells, tokens and
+ * numeric constants in static final fields, so HotSpot optimizes it like any other Java method.
+ * Bodies declaring nested functions or classes are not compiled and stay interpreted.
+ * <p>
+ * A loop the interpreter has been running for long is compiled on its own and replaces the
+ * interpreted loop on the stack: the compiled loop takes over the locals of the loop's frame,
+ * goes on with the next iteration and writes the locals back when the loop ends.
+ */
+final class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    interface CompiledBody {
+        Object call(Interpreter interpreter, Environment closure, LoxInstance receiver, Object[] arguments);
+    }
+
+    static final boolean enabled = Boolean.parseBoolean(System.getProperty("lox.jit", "true"));
+    static final int threshold = Integer.getInteger("lox.jit.threshold", 1000);
+    static final int osrThreshold = Integer.getInteger("lox.osr.threshold", 10000);
+
+    private static final String PACKAGE = "com/interpreters/lox/";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String OBJECT_TYPE = "Ljava/lang/Object;";
+    private static final String TOKEN_TYPE = "L" + PACKAGE + "Token;";
+    private static final String RUNTIME = PACKAGE + "JitRuntime";
+    private static final String ENVIRONMENT = PACKAGE + "Environment";
+    private static final String BINARY = "(" + OBJECT_TYPE + OBJECT_TYPE + TOKEN_TYPE + ")";
+
+    // JVM locals of the generated call method
+    private static final int INTERPRETER = 1;
+    private static final int CLOSURE = 2;
+    private static final int RECEIVER = 3;
+    private static final int ARGUMENTS = 4;
+    private static final int FIRST_LOCAL = 5;
+
+    private final String className = PACKAGE + "LoxJitBody";
+    private final JvmClassWriter classWriter = new JvmClassWriter(className, OBJECT, PACKAGE + "JitCompiler$CompiledBody");
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    private final Deque<Scope> scopes = new ArrayDeque<>();
+    private final Deque<Label> loopExits = new ArrayDeque<>();
+    private JvmClassWriter.Code code;
+    private int nextLocal = FIRST_LOCAL;
+    // profile of the function being compiled, deoptimized when a speculation fails; null at the top level
+    private Profile profile;
+    // whether a loop is compiled for on-stack replacement, which leaves returned values to the interpreter
+    private boolean loop = false;
+
+    private static final class Scope {
+        private final int base;
+        // slots declared without initializer, whose reads must be checked
+        private final boolean[] checked;
+
+        private Scope(int base, int size) {
+            this.base = base;
+            this.checked = new boolean[size];
+        }
+    }
+
+    private static final class Unsupported extends RuntimeException {
+        private Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private JitCompiler() {
+    }
+
+    /**
+     * @return the compiled body, or null if the body uses constructs the compiler does not handle
+     */
+    static CompiledBody tryCompile(Expr.Function declaration) {
+        return tryCompile(compiler -> compiler.compileBody(declaration));
+    }
+
+    /**
+     * Replaces a loop the interpreter has run {@link #osrThreshold} iterations in a row with its
+     * compiled version, right before the loop's next condition check.
+     *
+     * @return how the loop completed, or null if it goes on interpreted
+     */
+    static Completion replaceLoop(Interpreter interpreter, Stmt.While loop, Environment frame) {
+        if (!enabled || loop.getRejected()) {
+            return null;
+        }
+        CompiledBody compiled = loop.getCompiledLoop();
+        if (null == compiled) {
+            // the frame's current values tell which of its slots may be uninitialized
+            compiled = tryCompile(compiler -> compiler.compileLoop(loop, frame));
+            loop.setCompiledLoop(compiled);
+            loop.setRejected(null == compiled);
+        }
+        return null == compiled ? null : (Completion) compiled.call(interpreter, frame, null, null);
+    }
+
+    private static CompiledBody tryCompile(Function<JitCompiler, byte[]> compile) {
+        try {
+            JitCompiler compiler = new JitCompiler();
+            byte[] bytes = compile.apply(compiler);
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClassWithClassData(bytes, compiler.constants.toArray(), true);
+            return (CompiledBody) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            // unsupported construct, oversized method or a class the JVM rejects: keep interpreting
+            return null;
+        }
+    }
+
+    private byte[] compileBody(Expr.Function declaration) {
+        profile = declaration.getProfile();
+        beginClass();
+        beginScope(declaration.getFrameSize());
+        int firstParam = declaration.getFirstParam();
+        if (firstParam > 0) {
+            code.aload(RECEIVER);
+            code.astore(FIRST_LOCAL);
+        }
+        for (int i = 0; i < declaration.getParams().size(); i++) {
+            code.aload(ARGUMENTS);
+            code.iconst(i);
+            code.op(AALOAD, -1);
+            code.astore(FIRST_LOCAL + firstParam + i);
+        }
+        compile(declaration.getBody());
+        endScope();
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+        return endClass();
+    }
+
+    /**
+     * Compiles a loop to run in place of the interpreted one. The closure argument of the call is
+     * the frame the loop runs in, null at the top level. A call returns null without running the
+     * loop if a slot the code takes as initialized is not.
+     */
+    private byte[] compileLoop(Stmt.While stmt, Environment frame) {
+        profile = stmt.getProfile();
+        loop = true;
+        beginClass();
+        int frameLocal = nextLocal++;
+        code.useLocals(nextLocal);
+        code.aload(CLOSURE);
+        code.astore(frameLocal);
+        int frameSize = null == frame ? 0 : frame.size();
+        beginScope(frameSize);
+        Label uninitialized = new Label();
+        for (int slot = 0; slot < frameSize; slot++) {
+            code.aload(frameLocal);
+            code.iconst(slot);
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "get", "(I)" + OBJECT_TYPE);
+            code.astore(local(0, slot));
+            if (Environment.uninitialized == frame.get(slot)) {
+                scopes.peek().checked[slot] = true;
+            } else {
+                code.aload(local(0, slot));
+                code.invoke(INVOKESTATIC, RUNTIME, "isUninitialized", "(" + OBJECT_TYPE + ")Z");
+                code.jump(IFNE, uninitialized);
+            }
+        }
+        // what lies beyond the frame is read like the closure of a compiled body
+        code.aload(frameLocal);
+        code.invoke(INVOKESTATIC, RUNTIME, "enclosing", "(L" + ENVIRONMENT + ";)L" + ENVIRONMENT + ";");
+        code.astore(CLOSURE);
+        compile(stmt);
+        for (int slot = 0; slot < frameSize; slot++) {
+            code.aload(frameLocal);
+            code.iconst(slot);
+            code.aload(local(0, slot));
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "define", "(I" + OBJECT_TYPE + ")V");
+        }
+        endScope();
+        code.field(GETSTATIC, PACKAGE + "Completion", "NORMAL", "L" + PACKAGE + "Completion;");
+        code.op(ARETURN, -1);
+        code.mark(uninitialized);
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+        return endClass();
+    }
+
+    /**
+     * Starts the class and its call method.
+     */
+    private void beginClass() {
+        JvmClassWriter.Code constructor = classWriter.method(ACC_PUBLIC, "<init>", "()V");
+        constructor.aload(0);
+        constructor.invoke(INVOKESPECIAL, OBJECT, "<init>", "()V");
+        constructor.op(RETURN, 0);
+
+        code = classWriter.method(ACC_PUBLIC, "call",
+                "(L" + PACKAGE + "Interpreter;L" + ENVIRONMENT + ";L" + PACKAGE + "LoxInstance;[" + OBJECT_TYPE + ")" + OBJECT_TYPE);
+        code.useLocals(FIRST_LOCAL);
+    }
+
+    private byte[] endClass() {
+        // static final constant fields, initialized from the class data
+        JvmClassWriter.Code initializer = classWriter.method(ACC_STATIC, "<clinit>", "()V");
+        initializer.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;");
+        initializer.ldc("_");
+        initializer.ldcClass("[" + OBJECT_TYPE);
+        initializer.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)" + OBJECT_TYPE);
+        initializer.type(CHECKCAST, "[" + OBJECT_TYPE);
+        initializer.astore(0);
+        for (int i = 0; i < constants.size(); i++) {
+            String type = typeOf(constants.get(i));
+            classWriter.field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "c" + i, "L" + type + ";");
+            initializer.aload(0);
+            initializer.iconst(i);
+            initializer.op(AALOAD, -1);
+            initializer.type(CHECKCAST, type);
+            initializer.field(PUTSTATIC, className, "c" + i, "L" + type + ";");
+        }
+        initializer.op(RETURN, 0);
+        return classWriter.toByteArray();
+    }
+
+    @Override
+    public Void visitAssignmentExpr(Expr.Assignment expr) {
+        int depth = expr.getDepth();
+        if (depth < 0) {
+            compile(expr.getValue());
+            constant(expr.getCell());
+            constant(expr.getName());
+            code.invoke(INVOKESTATIC, RUNTIME, "writeGlobal",
+                    "(" + OBJECT_TYPE + "L" + PACKAGE + "GlobalCell;" + TOKEN_TYPE + ")V");
+        } else if (depth < scopes.size()) {
+            if (expr.getCaptured()) {
+                throw new Unsupported();
+            }
+            compile(expr.getValue());
+            code.astore(local(depth, expr.getSlot()));
+        } else if (expr.getCaptured()) {
+            loadEnclosing(depth, expr.getSlot());
+            code.type(CHECKCAST, PACKAGE + "Upvalue");
+            compile(expr.getValue());
+            code.invoke(INVOKEVIRTUAL, PACKAGE + "Upvalue", "setValue", "(" + OBJECT_TYPE + ")V");
+        } else {
+            code.aload(CLOSURE);
+            code.iconst(depth - scopes.size());
+            code.iconst(expr.getSlot());
+            compile(expr.getValue());
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "assignAt", "(II" + OBJECT_TYPE + ")V");
+        }
+        code.op(ACONST_NULL, 1);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        Label elseBranch = new Label();
+        Label end = new Label();
+        branchIfFalse(expr.getExpr(), elseBranch);
+        int stack = code.getStack();
+        compile(expr.getThenBranch());
+        code.jump(GOTO, end);
+        code.mark(elseBranch);
+        code.setStack(stack);
+        compile(expr.getElseBranch());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        if (expr.getNumeric() && comparison(expr.getOperator().getTokenType()) == null) {
+            number(expr);
+            boxNumber();
+            return null;
+        }
+        switch (expr.getOperator().getTokenType()) {
+            case PLUS -> arithmetic(expr, "add");
+            case MINUS -> arithmetic(expr, "subtract");
+            case STAR -> arithmetic(expr, "multiply");
+            case SLASH -> arithmetic(expr, "divide");
+            case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, BANG_EQUAL, EQUAL_EQUAL -> {
+                condition(expr);
+                box();
+            }
+            default -> {
+                // comma operator: evaluates both operands and yields nil
+                compile(expr.getLeft());
+                code.op(POP, -1);
+                compile(expr.getRight());
+                code.op(POP, -1);
+                code.op(ACONST_NULL, 1);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.getValue();
+        if (null == value) {
+            code.op(ACONST_NULL, 1);
+        } else if (value instanceof Boolean bool) {
+            code.field(GETSTATIC, "java/lang/Boolean", bool ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        } else if (value instanceof String string) {
+            code.ldc(string);
+        } else {
+            constant(value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        if (expr.getOperator().getTokenType() == TokenType.BANG) {
+            condition(expr);
+            box();
+        } else if (expr.getNumeric()) {
+            number(expr);
+            boxNumber();
+        } else {
+            compile(expr.getRight());
+            constant(expr.getOperator());
+            code.invoke(INVOKESTATIC, RUNTIME, "negate", "(" + OBJECT_TYPE + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        int depth = expr.getDepth();
+        if (depth < 0) {
+            constant(expr.getCell());
+            constant(expr.getName());
+            code.invoke(INVOKESTATIC, RUNTIME, "readGlobal",
+                    "(L" + PACKAGE + "GlobalCell;" + TOKEN_TYPE + ")" + OBJECT_TYPE);
+            return null;
+        }
+        if (depth < scopes.size()) {
+            if (expr.getCaptured()) {
+                throw new Unsupported();
+            }
+            code.aload(local(depth, expr.getSlot()));
+            if (!scope(depth).checked[expr.getSlot()]) {
+                return null;
+            }
+        } else {
+            loadEnclosing(depth, expr.getSlot());
+            if (expr.getCaptured()) {
+                code.type(CHECKCAST, PACKAGE + "Upvalue");
+                code.invoke(INVOKEVIRTUAL, PACKAGE + "Upvalue", "getValue", "()" + OBJECT_TYPE);
+            }
+        }
+        constant(expr.getName());
+        code.invoke(INVOKESTATIC, RUNTIME, "checkInitialized", "(" + OBJECT_TYPE + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        Label end = new Label();
+        compile(expr.getLeft());
+        code.op(DUP, 1);
+        isTruthy();
+        // short circuit
+        code.jump(expr.getOperator().getTokenType() == TokenType.AND ? IFEQ : IFNE, end);
+        code.op(POP, -1);
+        compile(expr.getRight());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.getCallee() instanceof Expr.Get get) {
+            // receiver and unbound method stay on the stack while the arguments are evaluated
+            compile(get.getObject());
+            constant(get.getName());
+            code.invoke(INVOKESTATIC, RUNTIME, "checkInstance",
+                    "(" + OBJECT_TYPE + TOKEN_TYPE + ")L" + PACKAGE + "LoxInstance;");
+            code.op(DUP, 1);
+            constant(get.getCache());
+            constant(get.getName());
+            code.invoke(INVOKESTATIC, RUNTIME, "lookup",
+                    "(L" + PACKAGE + "LoxInstance;L" + PACKAGE + "InlineCache;" + TOKEN_TYPE + ")" + OBJECT_TYPE);
+            arguments(expr.getArguments());
+            constant(expr.getParen());
+            code.aload(INTERPRETER);
+            code.invoke(INVOKESTATIC, RUNTIME, "invoke", "(L" + PACKAGE + "LoxInstance;" + OBJECT_TYPE
+                    + "[" + OBJECT_TYPE + TOKEN_TYPE + "L" + PACKAGE + "Interpreter;)" + OBJECT_TYPE);
+            return null;
+        }
+        compile(expr.getCallee());
+        arguments(expr.getArguments());
+        constant(expr.getParen());
+        code.aload(INTERPRETER);
+        code.invoke(INVOKESTATIC, RUNTIME, "call",
+                "(" + OBJECT_TYPE + "[" + OBJECT_TYPE + TOKEN_TYPE + "L" + PACKAGE + "Interpreter;)" + OBJECT_TYPE);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        Expr.Call call = expr.getCall();
+        if (expr.getMissed()) {
+            // the guard failed before, don't speculate again
+            compile(call);
+            return null;
+        }
+        Label fallback = new Label();
+        Label end = new Label();
+        int slot = expr.getBase();
+        boolean method = call.getCallee() instanceof Expr.Get;
+        if (call.getCallee() instanceof Expr.Get get) {
+            compile(get.getObject());
+            constant(get.getName());
+            code.invoke(INVOKESTATIC, RUNTIME, "checkInstance",
+                    "(" + OBJECT_TYPE + TOKEN_TYPE + ")L" + PACKAGE + "LoxInstance;");
+            code.op(DUP, 1);
+            constant(get.getCache());
+            constant(get.getName());
+            code.invoke(INVOKESTATIC, RUNTIME, "lookup",
+                    "(L" + PACKAGE + "LoxInstance;L" + PACKAGE + "InlineCache;" + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        } else {
+            compile(call.getCallee());
+        }
+        // the callee stays on the stack for the call if the guard fails
+        code.op(DUP, 1);
+        constant(expr.getFunction());
+        code.invoke(INVOKESTATIC, RUNTIME, "isInlined", "(" + OBJECT_TYPE + "L" + PACKAGE + "Expr$Function;)Z");
+        code.jump(IFEQ, fallback);
+        int stack = code.getStack();
+        code.op(POP, -1);
+        if (method) {
+            code.astore(local(0, slot++));
+        }
+        for (Expr argument : call.getArguments()) {
+            compile(argument);
+            code.astore(local(0, slot++));
+        }
+        compile(expr.getBody());
+        code.jump(GOTO, end);
+        code.mark(fallback);
+        code.setStack(stack);
+        constant(expr);
+        if (null != profile) {
+            constant(profile);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        code.invoke(INVOKESTATIC, RUNTIME, "deoptimize", "(L" + PACKAGE + "Expr$Inline;L" + PACKAGE + "Profile;)V");
+        arguments(call.getArguments());
+        constant(call.getParen());
+        code.aload(INTERPRETER);
+        if (method) {
+            code.invoke(INVOKESTATIC, RUNTIME, "invoke", "(L" + PACKAGE + "LoxInstance;" + OBJECT_TYPE
+                    + "[" + OBJECT_TYPE + TOKEN_TYPE + "L" + PACKAGE + "Interpreter;)" + OBJECT_TYPE);
+        } else {
+            code.invoke(INVOKESTATIC, RUNTIME, "call",
+                    "(" + OBJECT_TYPE + "[" + OBJECT_TYPE + TOKEN_TYPE + "L" + PACKAGE + "Interpreter;)" + OBJECT_TYPE);
+        }
+        code.mark(end);
+        return null;
+    }
+
+    private void arguments(List<Expr> arguments) {
+        code.iconst(arguments.size());
+        code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < arguments.size(); i++) {
+            code.op(DUP, 1);
+            code.iconst(i);
+            compile(arguments.get(i));
+            code.op(AASTORE, -3);
+        }
+    }
+
+    @Override
+    public Void visitFunctionExpr(Expr.Function expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.getObject());
+        constant(expr.getCache());
+        constant(expr.getName());
+        code.invoke(INVOKESTATIC, RUNTIME, "getProperty",
+                "(" + OBJECT_TYPE + "L" + PACKAGE + "InlineCache;" + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.getObject());
+        constant(expr.getName());
+        code.invoke(INVOKESTATIC, RUNTIME, "checkInstance",
+                "(" + OBJECT_TYPE + TOKEN_TYPE + ")L" + PACKAGE + "LoxInstance;");
+        compile(expr.getValue());
+        constant(expr.getCache());
+        constant(expr.getName());
+        code.invoke(INVOKESTATIC, RUNTIME, "setProperty",
+                "(L" + PACKAGE + "LoxInstance;" + OBJECT_TYPE + "L" + PACKAGE + "InlineCache;" + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        load(expr.getDepth(), expr.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        if (expr.getDepth() < scopes.size()) {
+            throw new Unsupported();
+        }
+        // the method is an upvalue copied from the "super" scope
+        loadEnclosing(expr.getDepth(), expr.getSlot());
+        load(expr.getThisDepth(), expr.getThisSlot());
+        constant(expr.getMethod());
+        code.invoke(INVOKESTATIC, RUNTIME, "superMethod", "(" + OBJECT_TYPE + OBJECT_TYPE + TOKEN_TYPE + ")" + OBJECT_TYPE);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.getExpression());
+        code.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.getExpression());
+        code.invoke(INVOKESTATIC, RUNTIME, "print", "(" + OBJECT_TYPE + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.getSlot() < 0) {
+            throw new Unsupported();
+        }
+        if (null != stmt.getInitializer()) {
+            compile(stmt.getInitializer());
+        } else {
+            code.field(GETSTATIC, ENVIRONMENT, "uninitialized", OBJECT_TYPE);
+            scopes.peek().checked[stmt.getSlot()] = true;
+        }
+        code.astore(local(0, stmt.getSlot()));
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (!stmt.getScoped()) {
+            compile(stmt.getStatements());
+            return null;
+        }
+        beginScope(stmt.getFrameSize());
+        compile(stmt.getStatements());
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Label elseBranch = new Label();
+        branchIfFalse(stmt.getCondition(), elseBranch);
+        compile(stmt.getThenStatement());
+        if (null == stmt.getElseStatement()) {
+            code.mark(elseBranch);
+            return null;
+        }
+        Label end = new Label();
+        code.jump(GOTO, end);
+        code.mark(elseBranch);
+        compile(stmt.getElseStatement());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Label start = new Label();
+        Label exit = new Label();
+        code.mark(start);
+        branchIfFalse(stmt.getCondition(), exit);
+        loopExits.push(exit);
+        compile(stmt.getBody());
+        loopExits.pop();
+        code.jump(GOTO, start);
+        code.mark(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        code.jump(GOTO, loopExits.peek());
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.getTailCall()) {
+            Expr.Call call = (Expr.Call) stmt.getValue();
+            if (call.getCallee() instanceof Expr.Get get) {
+                compile(get.getObject());
+                constant(get.getName());
+                code.invoke(INVOKESTATIC, RUNTIME, "checkInstance",
+                        "(" + OBJECT_TYPE + TOKEN_TYPE + ")L" + PACKAGE + "LoxInstance;");
+                code.op(DUP, 1);
+                constant(get.getCache());
+                constant(get.getName());
+                code.invoke(INVOKESTATIC, RUNTIME, "lookup",
+                        "(L" + PACKAGE + "LoxInstance;L" + PACKAGE + "InlineCache;" + TOKEN_TYPE + ")" + OBJECT_TYPE);
+            } else {
+                code.op(ACONST_NULL, 1);
+                compile(call.getCallee());
+            }
+            arguments(call.getArguments());
+            constant(call.getParen());
+            code.aload(INTERPRETER);
+            code.invoke(INVOKESTATIC, RUNTIME, "tailCall", "(L" + PACKAGE + "LoxInstance;" + OBJECT_TYPE
+                    + "[" + OBJECT_TYPE + TOKEN_TYPE + "L" + PACKAGE + "Interpreter;)" + OBJECT_TYPE);
+            returnValue();
+            return null;
+        }
+        if (null != stmt.getValue()) {
+            compile(stmt.getValue());
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        returnValue();
+        return null;
+    }
+
+    private void returnValue() {
+        if (loop) {
+            // the function's frame is left behind, the interpreter returns the value
+            code.aload(INTERPRETER);
+            code.invoke(INVOKESTATIC, RUNTIME, "returnFromLoop",
+                    "(" + OBJECT_TYPE + "L" + PACKAGE + "Interpreter;)L" + PACKAGE + "Completion;");
+        }
+        code.op(ARETURN, -1);
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    private void compile(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            compile(stmt);
+        }
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    /**
+     * Leaves the truthiness of the expression on the stack as a JVM boolean, without boxing
+     * comparison results.
+     */
+    private void condition(Expr expr) {
+        if (expr instanceof Expr.Grouping grouping) {
+            condition(grouping.getExpression());
+        } else if (expr instanceof Expr.Unary unary && unary.getOperator().getTokenType() == TokenType.BANG) {
+            condition(unary.getRight());
+            code.iconst(1);
+            code.op(IXOR, -1);
+        } else if (expr instanceof Expr.Binary binary && binary.getNumeric() && comparison(binary.getOperator().getTokenType()) != null) {
+            Label isFalse = new Label();
+            Label end = new Label();
+            int stack = code.getStack();
+            compareNumbers(binary, isFalse);
+            code.iconst(1);
+            code.jump(GOTO, end);
+            code.mark(isFalse);
+            code.setStack(stack);
+            code.iconst(0);
+            code.mark(end);
+        } else if (expr instanceof Expr.Binary binary && comparison(binary.getOperator().getTokenType()) != null) {
+            compile(binary.getLeft());
+            compile(binary.getRight());
+            switch (binary.getOperator().getTokenType()) {
+                case EQUAL_EQUAL, BANG_EQUAL -> {
+                    code.invoke(INVOKESTATIC, PACKAGE + "Interpreter", "isEqual", "(" + OBJECT_TYPE + OBJECT_TYPE + ")Z");
+                    if (binary.getOperator().getTokenType() == TokenType.BANG_EQUAL) {
+                        code.iconst(1);
+                        code.op(IXOR, -1);
+                    }
+                }
+                default -> {
+                    constant(binary.getOperator());
+                    code.invoke(INVOKESTATIC, RUNTIME, comparison(binary.getOperator().getTokenType()), BINARY + "Z");
+                }
+            }
+        } else {
+            compile(expr);
+            isTruthy();
+        }
+    }
+
+    private void branchIfFalse(Expr expr, Label target) {
+        if (expr instanceof Expr.Logical logical) {
+            if (logical.getOperator().getTokenType() == TokenType.AND) {
+                branchIfFalse(logical.getLeft(), target);
+                branchIfFalse(logical.getRight(), target);
+            } else {
+                Label taken = new Label();
+                condition(logical.getLeft());
+                code.jump(IFNE, taken);
+                branchIfFalse(logical.getRight(), target);
+                code.mark(taken);
+            }
+            return;
+        }
+        if (expr instanceof Expr.Binary binary && binary.getNumeric() && comparison(binary.getOperator().getTokenType()) != null) {
+            compareNumbers(binary, target);
+            return;
+        }
+        condition(expr);
+        code.jump(IFEQ, target);
+    }
+
+    /**
+     * Compares operands proven to be numbers as primitives and branches to the target if the
+     * comparison is false. NaN compares false, as in Java.
+     */
+    private void compareNumbers(Expr.Binary binary, Label target) {
+        number(binary.getLeft());
+        number(binary.getRight());
+        switch (binary.getOperator().getTokenType()) {
+            case LESS -> {
+                code.op(DCMPG, -3);
+                code.jump(IFGE, target);
+            }
+            case LESS_EQUAL -> {
+                code.op(DCMPG, -3);
+                code.jump(IFGT, target);
+            }
+            case GREATER -> {
+                code.op(DCMPL, -3);
+                code.jump(IFLE, target);
+            }
+            default -> {
+                code.op(DCMPL, -3);
+                code.jump(IFLT, target);
+            }
+        }
+    }
+
+    /**
+     * Leaves the value of an expression proven to be a number on the stack as a primitive double.
+     * Arithmetic on proven operands stays unboxed.
+     */
+    private void number(Expr expr) {
+        if (expr instanceof Expr.Grouping grouping) {
+            number(grouping.getExpression());
+        } else if (expr instanceof Expr.Unary unary && unary.getNumeric()) {
+            number(unary.getRight());
+            code.op(DNEG, 0);
+        } else if (expr instanceof Expr.Binary binary && binary.getNumeric() && comparison(binary.getOperator().getTokenType()) == null) {
+            number(binary.getLeft());
+            number(binary.getRight());
+            switch (binary.getOperator().getTokenType()) {
+                case PLUS -> code.op(DADD, -2);
+                case MINUS -> code.op(DSUB, -2);
+                case STAR -> code.op(DMUL, -2);
+                default -> {
+                    constant(binary.getOperator());
+                    code.invoke(INVOKESTATIC, RUNTIME, "divisor", "(D" + TOKEN_TYPE + ")D");
+                    code.op(DDIV, -2);
+                }
+            }
+        } else {
+            compile(expr);
+            code.type(CHECKCAST, "java/lang/Double");
+            code.invoke(INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+        }
+    }
+
+    private static String comparison(TokenType type) {
+        return switch (type) {
+            case GREATER -> "greater";
+            case GREATER_EQUAL -> "greaterEqual";
+            case LESS -> "less";
+            case LESS_EQUAL -> "lessEqual";
+            case EQUAL_EQUAL, BANG_EQUAL -> "isEqual";
+            default -> null;
+        };
+    }
+
+    private void arithmetic(Expr.Binary expr, String helper) {
+        compile(expr.getLeft());
+        compile(expr.getRight());
+        constant(expr.getOperator());
+        code.invoke(INVOKESTATIC, RUNTIME, helper, BINARY + OBJECT_TYPE);
+    }
+
+    private void isTruthy() {
+        code.invoke(INVOKESTATIC, PACKAGE + "Interpreter", "isTruthy", "(" + OBJECT_TYPE + ")Z");
+    }
+
+    private void boxNumber() {
+        code.invoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+    }
+
+    private void box() {
+        code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+    }
+
+    private void load(int depth, int slot) {
+        if (depth < scopes.size()) {
+            code.aload(local(depth, slot));
+        } else {
+            loadEnclosing(depth, slot);
+        }
+    }
+
+    private void loadEnclosing(int depth, int slot) {
+        code.aload(CLOSURE);
+        code.iconst(depth - scopes.size());
+        code.iconst(slot);
+        code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "getAt", "(II)" + OBJECT_TYPE);
+    }
+
+    private void constant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (null == index) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+        code.field(GETSTATIC, className, "c" + index, "L" + typeOf(value) + ";");
+    }
+
+    private static String typeOf(Object constant) {
+        return constant.getClass().getName().replace('.', '/');
+    }
+
+    private void beginScope(int size) {
+        scopes.push(new Scope(nextLocal, size));
+        nextLocal += size;
+        code.useLocals(nextLocal);
+    }
+
+    private void endScope() {
+        nextLocal = scopes.pop().base;
+    }
+
+    private Scope scope(int depth) {
+        for (Scope scope : scopes) {
+            if (depth-- == 0) {
+                return scope;
+            }
+        }
+        throw new Unsupported();
+    }
+
+    private int local(int depth, int slot) {
+        return scope(depth).base + slot;
+    }
+}
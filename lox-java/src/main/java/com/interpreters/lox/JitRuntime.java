@@ -0,0 +1,177 @@
+package com.interpreters.lox;
+
+/**
+ * Helpers called from code generated by the {@link JitCompiler}. They are small and static so
+ * HotSpot inlines them into the compiled Lox function.
+ */
+final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    static Object readGlobal(GlobalCell cell, Token name) {
+        Object value = cell.getValue();
+        if (GlobalCell.undefined == value) {
+            throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+        }
+        return checkInitialized(value, name);
+    }
+
+    static void writeGlobal(Object value, GlobalCell cell, Token name) {
+        if (!cell.isDefined()) {
+            throw new RuntimeError(name, "Undefined variable '" + name.getLexeme() + "'.");
+        }
+        cell.setValue(value);
+    }
+
+    static Object checkInitialized(Object value, Token name) {
+        // challenge 8.2
+        if (Environment.uninitialized == value) {
+            throw new RuntimeError(name, "Variable must be initialized before use.");
+        }
+        return value;
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double leftDouble && right instanceof Double rightDouble) {
+            return leftDouble + rightDouble;
+        }
+        // challenge 7.2
+        if (left instanceof CharSequence || right instanceof CharSequence) {
+            return LoxString.concat(left, right);
+        }
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings or at least one strings.");
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperand(operator, left, right);
+        return (double) left - (double) right;
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperand(operator, left, right);
+        return (double) left * (double) right;
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperand(operator, left, right);
+        // challenge 7.3
+        Interpreter.checkDivideZero(operator, right);
+        return (double) left / (double) right;
+    }
+
+    /**
+     * @return the divisor of a division on numbers, once checked it is not zero
+     */
+    static double divisor(double right, Token operator) {
+        Interpreter.checkDivideZero(operator, right);
+        return right;
+    }
+
+    static boolean greater(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperand(operator, left, right);
+        return (double) left > (double) right;
+    }
+
+    static boolean greaterEqual(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperand(operator, left, right);
+        return (double) left >= (double) right;
+    }
+
+    static boolean less(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperand(operator, left, right);
+        return (double) left < (double) right;
+    }
+
+    static boolean lessEqual(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperand(operator, left, right);
+        return (double) left <= (double) right;
+    }
+
+    static Object negate(Object operand, Token operator) {
+        Interpreter.checkNumberOperand(operator, operand);
+        return -((double) operand);
+    }
+
+    static Object call(Object callee, Object[] arguments, Token paren, Interpreter interpreter) {
+        if (!(callee instanceof LoxCallable loxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        if (loxCallable.arity() != arguments.length) {
+            throw new RuntimeError(paren, String.format("Expect %d arguments but got %d.", loxCallable.arity(), arguments.length));
+        }
+        return loxCallable.call(interpreter, arguments);
+    }
+
+    static boolean isInlined(Object callee, Expr.Function declaration) {
+        return callee instanceof LoxFunction function && function.isInlined(declaration);
+    }
+
+    /**
+     * Called when the guard of an inlined call fails in compiled code: the code is recompiled
+     * later with a plain call. Frames running it go on with the call.
+     */
+    static void deoptimize(Expr.Inline inline, Profile profile) {
+        if (!inline.getMissed()) {
+            inline.setMissed(true);
+            // a loop at the top level belongs to no function
+            if (null != profile) {
+                profile.deoptimize();
+            }
+        }
+    }
+
+    static boolean isUninitialized(Object value) {
+        return Environment.uninitialized == value;
+    }
+
+    static Environment enclosing(Environment frame) {
+        return null == frame ? null : frame.getEnclosing();
+    }
+
+    static Completion returnFromLoop(Object value, Interpreter interpreter) {
+        interpreter.setReturnValue(value);
+        return Completion.RETURN;
+    }
+
+    static Object getProperty(Object object, InlineCache cache, Token name) {
+        if (object instanceof LoxInstance loxInstance) {
+            return cache.get(loxInstance, name);
+        }
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    static LoxInstance checkInstance(Object object, Token name) {
+        if (object instanceof LoxInstance loxInstance) {
+            return loxInstance;
+        }
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    static Object setProperty(LoxInstance instance, Object value, InlineCache cache, Token name) {
+        cache.set(instance, name, value);
+        return value;
+    }
+
+    static Object lookup(LoxInstance instance, InlineCache cache, Token name) {
+        return cache.lookup(instance, name);
+    }
+
+    static Object invoke(LoxInstance receiver, Object target, Object[] arguments, Token paren, Interpreter interpreter) {
+        return interpreter.invoke(receiver, target, arguments, paren);
+    }
+
+    static Object tailCall(LoxInstance receiver, Object callee, Object[] arguments, Token paren, Interpreter interpreter) {
+        return interpreter.tailCall(receiver, callee, arguments, paren);
+    }
+
+    static Object superMethod(Object function, Object instance, Token method) {
+        if (function == null) {
+            throw new RuntimeError(method, "Undefined property '" + method.getLexeme() + "'.");
+        }
+        return ((LoxFunction) function).bind((LoxInstance) instance);
+    }
+
+    static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+}
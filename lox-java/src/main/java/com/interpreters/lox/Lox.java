@@ -3,8 +3,7 @@ package com.interpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.charset.CharacterCodingException;
 import java.nio.file.Path;
 import java.util.List;
 
@@ -12,6 +11,21 @@ public class Lox {
     private static boolean hadError = false;
     private static boolean hadRuntimeError = false;
     private static final Interpreter interpreter = new Interpreter();
+    private static final VM vm = new VM();
+    // default engine for run(CharSequence), can be chosen with -Dlox.engine=closure|bytecode
+    private static final Engine engine = Engine.valueOf(System.getProperty("lox.engine", "tree_walker").toUpperCase());
+    // -Dlox.optimize=false runs the tree as parsed, -Dlox.optimize.report=true lists the optimizer's rewrites
+    private static final boolean optimize = Boolean.parseBoolean(System.getProperty("lox.optimize", "true"));
+    private static final boolean reportOptimizations = Boolean.getBoolean("lox.optimize.report");
+
+    public enum Engine {
+        // evaluate the syntax tree with the Interpreter visitor
+        TREE_WALKER,
+        // compile the syntax tree into Java lambdas once, then run those
+        CLOSURE,
+        // compile the syntax tree into bytecode and run it on the stack based VM
+        BYTECODE
+    }
 
     public static void main(String[] args) throws IOException {
         if (args.length > 1) {
@@ -25,8 +39,15 @@ public class Lox {
     }
 
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Path.of(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        CharSequence source;
+        try {
+            source = Source.load(Path.of(path));
+        } catch (CharacterCodingException e) {
+            System.err.println("Error: " + path + " is not valid UTF-8.");
+            System.exit(65);
+            return;
+        }
+        run(source);
         if (hadError) {
             System.exit(65);
         }
@@ -49,7 +70,11 @@ public class Lox {
         }
     }
 
-    public static void run(String source) {
+    public static void run(CharSequence source) {
+        run(source, engine);
+    }
+
+    public static void run(CharSequence source, Engine engine) {
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
         Parser parser = new Parser(tokens);
@@ -66,15 +91,35 @@ public class Lox {
         if (hadError) {
             return;
         }
+        // optimizer
+        if (optimize) {
+            Optimizer optimizer = new Optimizer();
+            stmts = optimizer.optimize(stmts);
+            if (reportOptimizations) {
+                optimizer.getChanges().forEach(change -> System.err.println("[optimizer] " + change));
+            }
+            // marks the operators proven to work on numbers
+            new TypeInference().infer(stmts);
+        }
         // interpreter
-        interpreter.interpret(stmts);
+        switch (engine) {
+            case TREE_WALKER -> interpreter.interpret(stmts);
+            case CLOSURE -> new ClosureCompiler(interpreter).interpret(stmts);
+            case BYTECODE -> {
+                VM.ObjFunction script = new BytecodeCompiler(vm).compile(stmts);
+                if (hadError) {
+                    return;
+                }
+                vm.interpret(script);
+            }
+        }
         if (hadRuntimeError) {
             return;
         }
     }
 
     public static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line" + error.getToken().getLine() + "]");
+        System.err.println(error.getMessage() + "\n[line" + error.getLine() + "]");
         hadRuntimeError = true;
     }
 
@@ -1,9 +1,35 @@
 package com.interpreters.lox;
 
-import java.util.List;
-
+/**
+ * Something Lox code can call. Call sites with up to four arguments use the fixed-arity entry
+ * points, so the arguments travel in JVM registers instead of a list; the array-based
+ * {@link #call(Interpreter, Object[])} is the fallback every callable implements. Callers check
+ * the arity before calling.
+ */
 public interface LoxCallable {
+    Object[] NO_ARGUMENTS = new Object[0];
+
     int arity();
 
-    Object call(Interpreter interpreter, List<Object> arguments);
+    Object call(Interpreter interpreter, Object[] arguments);
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, NO_ARGUMENTS);
+    }
+
+    default Object call1(Interpreter interpreter, Object a1) {
+        return call(interpreter, new Object[]{a1});
+    }
+
+    default Object call2(Interpreter interpreter, Object a1, Object a2) {
+        return call(interpreter, new Object[]{a1, a2});
+    }
+
+    default Object call3(Interpreter interpreter, Object a1, Object a2, Object a3) {
+        return call(interpreter, new Object[]{a1, a2, a3});
+    }
+
+    default Object call4(Interpreter interpreter, Object a1, Object a2, Object a3, Object a4) {
+        return call(interpreter, new Object[]{a1, a2, a3, a4});
+    }
 }
@@ -1,34 +1,36 @@
 package com.interpreters.lox;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 public class LoxClass extends LoxInstance implements LoxCallable {
     private final String name;
-    private final LoxClass superclass;
+    // own and inherited methods, flattened when the class is created and never changed afterwards
     private final Map<String, LoxFunction> methods = new HashMap<>();
+    private final LoxFunction initializer;
+    // shape of this class's instances before they get any field
+    private final Shape rootShape = new Shape();
 
     public LoxClass(LoxClass metaClass, LoxClass superclass, String name, Map<String, LoxFunction> methods) {
         super(metaClass);
         this.name = name;
-        this.superclass = superclass;
+        if (null != superclass) {
+            this.methods.putAll(superclass.methods);
+        }
         this.methods.putAll(methods);
+        this.initializer = this.methods.get("init");
     }
 
     public String getName() {
         return name;
     }
 
-    public LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
+    public Shape getRootShape() {
+        return rootShape;
+    }
 
-        if (null != superclass) {
-            return superclass.findMethod(name);
-        }
-        return null;
+    public LoxFunction findMethod(String name) {
+        return methods.get(name);
     }
 
     @Override
@@ -38,17 +40,52 @@ public class LoxClass extends LoxInstance implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         return null == initializer ? 0 : initializer.arity();
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        LoxInstance instance = new LoxInstance(this);
+        if (null != initializer) {
+            initializer.invoke(interpreter, instance, arguments);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (null != initializer) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke0(interpreter, instance);
         }
         return instance;
     }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a1) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke1(interpreter, instance, a1);
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a1, Object a2) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke2(interpreter, instance, a1, a2);
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a1, Object a2, Object a3) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke3(interpreter, instance, a1, a2, a3);
+        return instance;
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a1, Object a2, Object a3, Object a4) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke4(interpreter, instance, a1, a2, a3, a4);
+        return instance;
+    }
 }
@@ -1,28 +1,77 @@
 package com.interpreters.lox;
 
-import java.util.List;
-
 public class LoxFunction implements LoxCallable {
+    // returned by a body whose return statement left a tail call, see Interpreter#tailCall
+    static final Object tailCall = new Object();
     private final String name;
     private final Expr.Function declaration;
+    // the upvalues, copied from the slots of the variables the function captures; null if there are none
     private final Environment closure;
     private final boolean inInitializer;
+    // body compiled by the ClosureCompiler engine, null when the function was created by the tree-walker
+    private final ClosureCompiler.StmtNode body;
+    // "this" of a bound method; methods keep it in slot 0 of their frame
+    private final LoxInstance receiver;
+
+    public LoxFunction(Expr.Function declaration, Environment environment, boolean inInitializer) {
+        this(null, declaration, environment, inInitializer);
+    }
+
+    public LoxFunction(String name, Expr.Function declaration, Environment environment, boolean inInitializer) {
+        this(name, declaration, environment, inInitializer, null);
+    }
 
-    public LoxFunction(Expr.Function declaration, Environment closure, boolean inInitializer) {
-        this(null, declaration, closure, inInitializer);
+    /**
+     * Creates the function in the environment of its declaration.
+     */
+    public LoxFunction(String name, Expr.Function declaration, Environment environment, boolean inInitializer,
+                       ClosureCompiler.StmtNode body) {
+        this(name, declaration, capture(environment, declaration), inInitializer, body, null);
     }
 
-    public LoxFunction(String name, Expr.Function declaration, Environment closure, boolean inInitializer) {
+    private LoxFunction(String name, Expr.Function declaration, Environment closure, boolean inInitializer,
+                        ClosureCompiler.StmtNode body, LoxInstance receiver) {
         this.inInitializer = inInitializer;
         this.name = name;
         this.declaration = declaration;
         this.closure = closure;
+        this.body = body;
+        this.receiver = receiver;
+    }
+
+    /**
+     * @return the upvalues of a closure created in the environment, or null if it captures nothing
+     */
+    private static Environment capture(Environment environment, Expr.Function declaration) {
+        int[] depths = declaration.getCaptureDepths();
+        if (depths.length == 0) {
+            return null;
+        }
+        int[] slots = declaration.getCaptureSlots();
+        Environment upvalues = new Environment(null, depths.length);
+        for (int i = 0; i < depths.length; i++) {
+            upvalues.define(i, environment.getAt(depths[i], slots[i]));
+        }
+        return upvalues;
     }
 
     public LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, inInitializer);
+        return new LoxFunction(null, declaration, closure, inInitializer, body, instance);
+    }
+
+    /**
+     * @return whether this is a method still waiting for its receiver, as found in a class's method table
+     */
+    public boolean isUnbound() {
+        return declaration.getFirstParam() > 0 && null == receiver;
+    }
+
+    /**
+     * @return whether a call of this function may run an inlined copy of the declaration's body:
+     * it is that declaration, not bound to a receiver of its own
+     */
+    public boolean isInlined(Expr.Function declaration) {
+        return this.declaration == declaration && null == receiver;
     }
 
     @Override
@@ -31,23 +80,154 @@ public class LoxFunction implements LoxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < arguments.size(); i++) {
-            environment.define(declaration.getParams().get(i).getLexeme(), arguments.get(i));
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a1) {
+        return invoke1(interpreter, receiver, a1);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a1, Object a2) {
+        return invoke2(interpreter, receiver, a1, a2);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a1, Object a2, Object a3) {
+        return invoke3(interpreter, receiver, a1, a2, a3);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a1, Object a2, Object a3, Object a4) {
+        return invoke4(interpreter, receiver, a1, a2, a3, a4);
+    }
+
+    /**
+     * Calls the method with the given receiver, without binding it first.
+     */
+    Object invoke(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        return complete(interpreter, receiver, enter(interpreter, receiver, arguments));
+    }
+
+    Object invoke0(Interpreter interpreter, LoxInstance receiver) {
+        JitCompiler.CompiledBody compiled = declaration.getProfile().enter(declaration);
+        if (null != compiled) {
+            return complete(interpreter, receiver, compiled.call(interpreter, closure, receiver, NO_ARGUMENTS));
         }
-        try {
-            interpreter.executeBlock(declaration.getBody(), environment);
-        } catch (Return returnStmt) {
-            if (inInitializer) {
-                return closure.getAt(0, "this");
-            }
-            return returnStmt.getValue();
+        return complete(interpreter, receiver, run(interpreter, frame(receiver)));
+    }
+
+    Object invoke1(Interpreter interpreter, LoxInstance receiver, Object a1) {
+        JitCompiler.CompiledBody compiled = declaration.getProfile().enter(declaration);
+        if (null != compiled) {
+            return complete(interpreter, receiver, compiled.call(interpreter, closure, receiver, new Object[]{a1}));
+        }
+        Environment frame = frame(receiver);
+        int firstParam = declaration.getFirstParam();
+        frame.define(firstParam, a1);
+        return complete(interpreter, receiver, run(interpreter, frame));
+    }
+
+    Object invoke2(Interpreter interpreter, LoxInstance receiver, Object a1, Object a2) {
+        JitCompiler.CompiledBody compiled = declaration.getProfile().enter(declaration);
+        if (null != compiled) {
+            return complete(interpreter, receiver, compiled.call(interpreter, closure, receiver, new Object[]{a1, a2}));
+        }
+        Environment frame = frame(receiver);
+        int firstParam = declaration.getFirstParam();
+        frame.define(firstParam, a1);
+        frame.define(firstParam + 1, a2);
+        return complete(interpreter, receiver, run(interpreter, frame));
+    }
+
+    Object invoke3(Interpreter interpreter, LoxInstance receiver, Object a1, Object a2, Object a3) {
+        JitCompiler.CompiledBody compiled = declaration.getProfile().enter(declaration);
+        if (null != compiled) {
+            return complete(interpreter, receiver, compiled.call(interpreter, closure, receiver, new Object[]{a1, a2, a3}));
+        }
+        Environment frame = frame(receiver);
+        int firstParam = declaration.getFirstParam();
+        frame.define(firstParam, a1);
+        frame.define(firstParam + 1, a2);
+        frame.define(firstParam + 2, a3);
+        return complete(interpreter, receiver, run(interpreter, frame));
+    }
+
+    Object invoke4(Interpreter interpreter, LoxInstance receiver, Object a1, Object a2, Object a3, Object a4) {
+        JitCompiler.CompiledBody compiled = declaration.getProfile().enter(declaration);
+        if (null != compiled) {
+            return complete(interpreter, receiver, compiled.call(interpreter, closure, receiver, new Object[]{a1, a2, a3, a4}));
+        }
+        Environment frame = frame(receiver);
+        int firstParam = declaration.getFirstParam();
+        frame.define(firstParam, a1);
+        frame.define(firstParam + 1, a2);
+        frame.define(firstParam + 2, a3);
+        frame.define(firstParam + 3, a4);
+        return complete(interpreter, receiver, run(interpreter, frame));
+    }
+
+    private Environment frame(LoxInstance receiver) {
+        Environment frame = new Environment(closure, declaration.getFrameSize());
+        if (declaration.getFirstParam() > 0) {
+            frame.define(0, receiver);
+        }
+        return frame;
+    }
+
+    /**
+     * Runs the body without making the tail call it may leave.
+     */
+    private Object enter(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        JitCompiler.CompiledBody compiled = declaration.getProfile().enter(declaration);
+        if (null != compiled) {
+            return compiled.call(interpreter, closure, receiver, arguments);
+        }
+        Environment frame = frame(receiver);
+        int firstParam = declaration.getFirstParam();
+        for (int i = 0; i < arguments.length; i++) {
+            frame.define(firstParam + i, arguments[i]);
         }
-        if (inInitializer) {
-            return closure.getAt(0, "this");
+        return run(interpreter, frame);
+    }
+
+    private Object run(Interpreter interpreter, Environment frame) {
+        for (int slot : declaration.getCapturedParams()) {
+            frame.define(slot, new Upvalue(frame.get(slot)));
+        }
+        ClosureCompiler.StmtNode body = null != this.body ? this.body : declaration.getProfile().optimizedBody(interpreter, declaration);
+        Completion completion = null != body ? body.exec(frame) : interpreter.executeBlock(declaration.getBody(), frame);
+        return completion == Completion.RETURN ? interpreter.takeReturnValue() : null;
+    }
+
+    private Object complete(Interpreter interpreter, LoxInstance receiver, Object value) {
+        if (tailCall == value) {
+            return trampoline(interpreter);
+        }
+        return inInitializer ? receiver : value;
+    }
+
+    /**
+     * Makes the pending tail calls one after the other from this Java frame, so tail-recursive
+     * functions run in constant stack.
+     */
+    private static Object trampoline(Interpreter interpreter) {
+        while (true) {
+            LoxFunction function = interpreter.takeTailCallee();
+            LoxInstance tailReceiver = interpreter.takeTailReceiver();
+            LoxInstance receiver = function.isUnbound() ? tailReceiver : function.receiver;
+            Object value = function.enter(interpreter, receiver, interpreter.takeTailArguments());
+            if (tailCall != value) {
+                return function.inInitializer ? receiver : value;
+            }
         }
-        return null;
     }
 
     @Override
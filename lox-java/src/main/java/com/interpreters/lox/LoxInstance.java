@@ -1,32 +1,120 @@
 package com.interpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class LoxInstance {
+    // returned by getField for a name the instance has no field for
+    static final Object absent = new Object();
+    private static final Object[] noFields = new Object[0];
+    // root shape of instances without a class, i.e. of metaclasses
+    private static final Shape classlessShape = new Shape();
+
     private final LoxClass loxClass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // fields are stored in slots as laid out by the shape, or in the dictionary once the
+    // instance has too many fields or its shape tree too many branches; shape is then null
+    private Shape shape;
+    private Object[] slots = noFields;
+    private Map<String, Object> dictionary = null;
 
     public LoxInstance(LoxClass loxClass) {
         this.loxClass = loxClass;
+        this.shape = null == loxClass ? classlessShape : loxClass.getRootShape();
+    }
+
+    public LoxClass getLoxClass() {
+        return loxClass;
     }
 
     public void set(Token name, Object value) {
-        fields.put(name.getLexeme(), value);
+        setField(name.getLexeme(), value);
     }
 
     public Object get(Token name) {
-        if (fields.containsKey(name.getLexeme())) {
-            return fields.get(name.getLexeme());
+        Object value = lookup(name);
+        if (value instanceof LoxFunction method && method.isUnbound()) {
+            return method.bind(this);
+        }
+        return value;
+    }
+
+    /**
+     * @return the value of the field, or the class's method left unbound
+     */
+    Object lookup(Token name) {
+        Object value = getField(name.getLexeme());
+        if (absent != value) {
+            return value;
         }
 
         LoxFunction method = loxClass.findMethod(name.getLexeme());
         if (method != null) {
-            return method.bind(this);
+            return method;
         }
         throw new RuntimeError(name, "Undefined property '" + name.getLexeme() + "'.");
     }
 
+    /**
+     * @return the value of the field, or {@link #absent} if the instance has no such field
+     */
+    Object getField(String name) {
+        if (null != dictionary) {
+            return dictionary.getOrDefault(name, absent);
+        }
+        int slot = shape.slotOf(name);
+        return slot < 0 ? absent : slots[slot];
+    }
+
+    void setField(String name, Object value) {
+        if (null != dictionary) {
+            dictionary.put(name, value);
+            return;
+        }
+        int slot = shape.slotOf(name);
+        if (slot >= 0) {
+            slots[slot] = value;
+            return;
+        }
+        Shape next = shape.withField(name);
+        if (null != next) {
+            addField(next, value);
+            return;
+        }
+        dictionary = new HashMap<>();
+        shape.getSlots().forEach((field, index) -> dictionary.put(field, slots[index]));
+        dictionary.put(name, value);
+        shape = null;
+        slots = noFields;
+    }
+
+    /**
+     * @return the current shape, or null if the fields are kept in a map
+     */
+    Shape getShape() {
+        return shape;
+    }
+
+    Object getSlot(int slot) {
+        return slots[slot];
+    }
+
+    void setSlot(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    /**
+     * Adds the field that takes the instance from its shape to next, a transition of that shape.
+     */
+    void addField(Shape next, Object value) {
+        int slot = shape.size();
+        if (slot == slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(slot + 1, next.getExpectedSize()));
+        }
+        slots[slot] = value;
+        shape = next;
+    }
+
     @Override
     public String toString() {
         return loxClass.getName() + " instance";
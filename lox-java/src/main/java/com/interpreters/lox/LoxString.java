@@ -0,0 +1,103 @@
+package com.interpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A string built by "+", kept as a rope: a concatenation only links its two parts, and the
+ * characters are copied once, the first time the value is printed, compared or hashed. Lox
+ * strings are either a {@link String} (literals, short results) or a rope, so code testing for a
+ * string value checks for a {@link CharSequence}.
+ */
+public final class LoxString implements CharSequence {
+    // results shorter than this are copied right away, a node would cost more than the copy
+    private static final int ROPE_THRESHOLD = 64;
+    private CharSequence left;
+    private CharSequence right;
+    private final int length;
+    // the characters once flattened, the parts are dropped then
+    private String flat;
+
+    private LoxString(CharSequence left, CharSequence right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    /**
+     * Concatenates two values of which at least one is a string, the other one is stringified.
+     */
+    static CharSequence concat(Object left, Object right) {
+        CharSequence a = left instanceof CharSequence string ? string : Interpreter.stringify(left);
+        CharSequence b = right instanceof CharSequence string ? string : Interpreter.stringify(right);
+        int length = a.length() + b.length();
+        if (length < ROPE_THRESHOLD) {
+            return a.toString().concat(b.toString());
+        }
+        if (a.isEmpty()) {
+            return b;
+        }
+        if (b.isEmpty()) {
+            return a;
+        }
+        return new LoxString(a, b, length);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (null == flat) {
+            flat = flatten();
+            left = null;
+            right = null;
+        }
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LoxString other && length == other.length && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    /**
+     * Copies the leaves from left to right, with an explicit stack since ropes built in a loop
+     * are as deep as the number of pieces.
+     */
+    private String flatten() {
+        char[] chars = new char[length];
+        int position = 0;
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence part = pending.pop();
+            if (part instanceof LoxString rope && null == rope.flat) {
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else {
+                String leaf = part.toString();
+                leaf.getChars(0, leaf.length(), chars, position);
+                position += leaf.length();
+            }
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,257 @@
+package com.interpreters.lox;
+
+import com.interpreters.lox.ClosureCompiler.ExprNode;
+
+/**
+ * Nodes of the {@link ClosureCompiler} tree for the operators the {@link TypeInference} proved to
+ * work on numbers. Their operands are computed through {@link ExprNode#evalDouble} without guards
+ * or operand checks, and never fail. Like the specializations of {@link SpecializingNodes}, each
+ * operator has its own class, so the operand calls of one operator are profiled apart from the
+ * others'.
+ */
+final class NumericNodes {
+    private NumericNodes() {
+    }
+
+    static ExprNode binary(Token operator, ExprNode left, ExprNode right) {
+        return switch (operator.getTokenType()) {
+            case PLUS -> new Add(left, right);
+            case MINUS -> new Subtract(left, right);
+            case STAR -> new Multiply(left, right);
+            case GREATER -> new Greater(left, right);
+            case GREATER_EQUAL -> new GreaterEqual(left, right);
+            case LESS -> new Less(left, right);
+            case LESS_EQUAL -> new LessEqual(left, right);
+            case SLASH -> new Divide(operator, left, right);
+            default -> throw new IllegalArgumentException("Not a numeric operator: " + operator.getLexeme());
+        };
+    }
+
+    static ExprNode negate(ExprNode right) {
+        return new Negate(right);
+    }
+
+    private static IllegalStateException notANumber(UnexpectedResultException e) {
+        return new IllegalStateException("Inferred a number for " + e.getResult());
+    }
+
+    private static final class Add implements ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        private Add(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalDouble(environment);
+        }
+
+        @Override
+        public double evalDouble(Environment environment) {
+            try {
+                return left.evalDouble(environment) + right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw notANumber(e);
+            }
+        }
+    }
+
+    private static final class Subtract implements ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        private Subtract(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalDouble(environment);
+        }
+
+        @Override
+        public double evalDouble(Environment environment) {
+            try {
+                return left.evalDouble(environment) - right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw notANumber(e);
+            }
+        }
+    }
+
+    private static final class Multiply implements ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        private Multiply(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalDouble(environment);
+        }
+
+        @Override
+        public double evalDouble(Environment environment) {
+            try {
+                return left.evalDouble(environment) * right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw notANumber(e);
+            }
+        }
+    }
+
+    private static final class Divide implements ExprNode {
+        private final Token operator;
+        private final ExprNode left;
+        private final ExprNode right;
+
+        private Divide(Token operator, ExprNode left, ExprNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalDouble(environment);
+        }
+
+        @Override
+        public double evalDouble(Environment environment) {
+            try {
+                double a = left.evalDouble(environment);
+                double b = right.evalDouble(environment);
+                // challenge 7.3
+                Interpreter.checkDivideZero(operator, b);
+                return a / b;
+            } catch (UnexpectedResultException e) {
+                throw notANumber(e);
+            }
+        }
+    }
+
+    private static final class Greater implements ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        private Greater(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalBoolean(environment);
+        }
+
+        @Override
+        public boolean evalBoolean(Environment environment) {
+            try {
+                return left.evalDouble(environment) > right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw notANumber(e);
+            }
+        }
+    }
+
+    private static final class GreaterEqual implements ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        private GreaterEqual(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalBoolean(environment);
+        }
+
+        @Override
+        public boolean evalBoolean(Environment environment) {
+            try {
+                return left.evalDouble(environment) >= right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw notANumber(e);
+            }
+        }
+    }
+
+    private static final class Less implements ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        private Less(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalBoolean(environment);
+        }
+
+        @Override
+        public boolean evalBoolean(Environment environment) {
+            try {
+                return left.evalDouble(environment) < right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw notANumber(e);
+            }
+        }
+    }
+
+    private static final class LessEqual implements ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        private LessEqual(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalBoolean(environment);
+        }
+
+        @Override
+        public boolean evalBoolean(Environment environment) {
+            try {
+                return left.evalDouble(environment) <= right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw notANumber(e);
+            }
+        }
+    }
+
+    private static final class Negate implements ExprNode {
+        private final ExprNode right;
+
+        private Negate(ExprNode right) {
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalDouble(environment);
+        }
+
+        @Override
+        public double evalDouble(Environment environment) {
+            try {
+                return -right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw notANumber(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.interpreters.lox;
+
+/**
+ * Instruction set of the bytecode {@link VM}. Each instruction is one byte, followed by its operands:
+ * u8 operands are one byte, u16 operands (constant indices and jump offsets) two bytes, big endian.
+ */
+public final class OpCode {
+    // u16 constant index
+    public static final byte CONSTANT = 0;
+    public static final byte NIL = 1;
+    public static final byte TRUE = 2;
+    public static final byte FALSE = 3;
+    public static final byte POP = 4;
+    // u8 slot
+    public static final byte GET_LOCAL = 5;
+    // u8 slot, for locals declared without an initializer
+    public static final byte GET_LOCAL_CHECKED = 6;
+    // u8 slot
+    public static final byte SET_LOCAL = 7;
+    // u16 constant index of the GlobalCell
+    public static final byte GET_GLOBAL = 8;
+    public static final byte SET_GLOBAL = 9;
+    public static final byte DEFINE_GLOBAL = 10;
+    // u8 upvalue index
+    public static final byte GET_UPVALUE = 11;
+    public static final byte SET_UPVALUE = 12;
+    // u16 constant index of the property name
+    public static final byte GET_PROPERTY = 13;
+    public static final byte SET_PROPERTY = 14;
+    public static final byte GET_SUPER = 15;
+    public static final byte EQUAL = 16;
+    public static final byte NOT_EQUAL = 17;
+    public static final byte GREATER = 18;
+    public static final byte GREATER_EQUAL = 19;
+    public static final byte LESS = 20;
+    public static final byte LESS_EQUAL = 21;
+    public static final byte ADD = 22;
+    public static final byte SUBTRACT = 23;
+    public static final byte MULTIPLY = 24;
+    public static final byte DIVIDE = 25;
+    public static final byte NOT = 26;
+    public static final byte NEGATE = 27;
+    public static final byte PRINT = 28;
+    // u16 forward offset
+    public static final byte JUMP = 29;
+    // u16 forward offset, the condition stays on the stack
+    public static final byte JUMP_IF_FALSE = 30;
+    // u16 backward offset
+    public static final byte LOOP = 31;
+    // u8 argument count
+    public static final byte CALL = 32;
+    // u16 constant index of the method name, u8 argument count
+    public static final byte INVOKE = 33;
+    // u16 constant index of the function, then (u8 isLocal, u8 index) per upvalue
+    public static final byte CLOSURE = 34;
+    public static final byte CLOSE_UPVALUE = 35;
+    public static final byte RETURN = 36;
+    // u16 constant index of the class name
+    public static final byte CLASS = 37;
+    public static final byte INHERIT = 38;
+    // u16 constant index of the method name
+    public static final byte METHOD = 39;
+    public static final byte CLASS_METHOD = 40;
+    // like CALL and INVOKE, for a call whose result is returned: a Lox function reuses the
+    // caller's frame, anything else is called normally and followed by RETURN
+    public static final byte TAIL_CALL = 41;
+    public static final byte TAIL_INVOKE = 42;
+
+    private OpCode() {
+    }
+}
@@ -0,0 +1,771 @@
+package com.interpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimization pass over the resolved syntax tree, run before any of the engines. It folds
+ * operators whose operands are literals following the interpreter's rules: "+" concatenates a
+ * string with any value, and operations the interpreter rejects (a division by zero, a number
+ * operator on a non-number, ...) are left alone so they still fail at run time. It also drops
+ * identities like {@code x * 1} when {@code x} can only be a number.
+ * <p>
+ * After folding it eliminates dead code: statements after a {@code return} or {@code break},
+ * branches and loops whose condition folded to a literal, and expression statements without an
+ * effect. A statement visitor returns null for a statement it removed.
+ * <p>
+ * A second pass inlines small functions: a call of a top-level function declared once, or of a
+ * method whose name no other method has, becomes an {@link Expr.Inline} holding a copy of the
+ * callee's returned expression. Its parameters and "this" read temporaries appended to the
+ * caller's frame. The engines check at run time that the callee still is that declaration and make
+ * the call otherwise.
+ * <p>
+ * Nodes are immutable, so a node with an optimized child is rebuilt with the resolver's
+ * annotations copied over. Every rewrite is recorded in {@link #getChanges()}.
+ */
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private final AstPrinter printer = new AstPrinter();
+    // largest returned expression copied into call sites, in nodes
+    private static final int MAX_INLINED_SIZE = 16;
+    private final List<String> changes = new ArrayList<>();
+    // inlined declarations by name, empty during the first pass
+    private final Map<String, Expr.Function> functions = new HashMap<>();
+    private final Map<String, Expr.Function> methods = new HashMap<>();
+    // frames of the code being optimized, innermost first; empty at the top level
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    private static final class Frame {
+        private int size;
+
+        private Frame(int size) {
+            this.size = size;
+        }
+    }
+
+    public List<Stmt> optimize(List<Stmt> stmts) {
+        List<Stmt> optimized = optimizeAll(stmts);
+        // the declarations are final once folded: the ones inlined call nothing, so they are not rebuilt
+        findInlineable(optimized);
+        if (functions.isEmpty() && methods.isEmpty()) {
+            return optimized;
+        }
+        return optimizeAll(optimized);
+    }
+
+    /**
+     * @return a description of each rewrite, in the order they were made
+     */
+    public List<String> getChanges() {
+        return changes;
+    }
+
+    @Override
+    public Expr visitAssignmentExpr(Expr.Assignment expr) {
+        Expr value = optimize(expr.getValue());
+        if (value == expr.getValue()) {
+            return expr;
+        }
+        Expr.Assignment assignment = new Expr.Assignment(expr.getName(), value);
+        assignment.setDepth(expr.getDepth());
+        assignment.setSlot(expr.getSlot());
+        assignment.setCell(expr.getCell());
+        assignment.setCaptured(expr.getCaptured());
+        return assignment;
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr condition = optimize(expr.getExpr());
+        Expr thenBranch = optimize(expr.getThenBranch());
+        Expr elseBranch = optimize(expr.getElseBranch());
+        if (condition instanceof Expr.Literal literal) {
+            return changed(expr, Interpreter.isTruthy(literal.getValue()) ? thenBranch : elseBranch);
+        }
+        if (isSameValue(thenBranch, elseBranch)) {
+            if (isPure(condition)) {
+                return changed(expr, thenBranch);
+            }
+            // the condition still runs for its effects and errors: the comma yields nil, so "or" goes on
+            // to the branch; neither operator can fail, so their line is never reported
+            Expr effects = new Expr.Binary(condition, new Token(TokenType.COMMA, ",", null, 0), new Expr.Literal(null));
+            return changed(expr, new Expr.Logical(effects, new Token(TokenType.OR, "or", null, 0), thenBranch));
+        }
+        if (condition == expr.getExpr() && thenBranch == expr.getThenBranch() && elseBranch == expr.getElseBranch()) {
+            return expr;
+        }
+        return new Expr.Ternary(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.getLeft());
+        Expr right = optimize(expr.getRight());
+        if (left instanceof Expr.Literal leftLiteral && right instanceof Expr.Literal rightLiteral) {
+            Expr folded = fold(expr.getOperator().getTokenType(), leftLiteral.getValue(), rightLiteral.getValue());
+            if (null != folded) {
+                return changed(expr, folded);
+            }
+        }
+        switch (expr.getOperator().getTokenType()) {
+            case MINUS -> {
+                // x - 0 is x for every number, including -0
+                if (isNumber(left) && isLiteral(right, 0.0)) {
+                    return changed(expr, left);
+                }
+            }
+            case STAR -> {
+                if (isNumber(left) && isLiteral(right, 1.0)) {
+                    return changed(expr, left);
+                }
+                if (isLiteral(left, 1.0) && isNumber(right)) {
+                    return changed(expr, right);
+                }
+            }
+            case SLASH -> {
+                if (isNumber(left) && isLiteral(right, 1.0)) {
+                    return changed(expr, left);
+                }
+            }
+            default -> {
+            }
+        }
+        if (left == expr.getLeft() && right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Binary(left, expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.getExpression());
+        if (expression instanceof Expr.Literal) {
+            return expression;
+        }
+        if (expression == expr.getExpression()) {
+            return expr;
+        }
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.getRight());
+        TokenType type = expr.getOperator().getTokenType();
+        if (right instanceof Expr.Literal literal) {
+            if (type == TokenType.BANG) {
+                return changed(expr, new Expr.Literal(!Interpreter.isTruthy(literal.getValue())));
+            }
+            if (literal.getValue() instanceof Double number) {
+                return changed(expr, new Expr.Literal(-number));
+            }
+        }
+        // -(-x) and !!x, when x already has the type the operator converts to
+        if (unwrap(right) instanceof Expr.Unary inner && inner.getOperator().getTokenType() == type) {
+            if (type == TokenType.MINUS ? isNumber(inner.getRight()) : isBoolean(inner.getRight())) {
+                return changed(expr, inner.getRight());
+            }
+        }
+        if (right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Unary(expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.getLeft());
+        Expr right = optimize(expr.getRight());
+        if (left instanceof Expr.Literal literal) {
+            // the operator yields one of its operands
+            boolean shortCircuit = Interpreter.isTruthy(literal.getValue()) == (expr.getOperator().getTokenType() == TokenType.OR);
+            return changed(expr, shortCircuit ? left : right);
+        }
+        if (left == expr.getLeft() && right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Logical(left, expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.getCallee());
+        List<Expr> arguments = optimizeExprs(expr.getArguments());
+        Expr.Call call = callee == expr.getCallee() && arguments == expr.getArguments()
+                ? expr : new Expr.Call(callee, expr.getParen(), arguments);
+        Expr.Function function = inlined(callee);
+        if (null == function || function.getParams().size() != arguments.size() || frames.isEmpty()) {
+            return call;
+        }
+        Frame frame = frames.peek();
+        int base = frame.size;
+        frame.size += function.getFirstParam() + arguments.size();
+        Expr.Inline inline = new Expr.Inline(call, function, relocate(returned(function), base));
+        inline.setBase(base);
+        return changed(call, inline);
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitFunctionExpr(Expr.Function expr) {
+        frames.push(new Frame(expr.getFrameSize()));
+        List<Stmt> body = optimizeAll(expr.getBody());
+        int frameSize = frames.pop().size;
+        if (body == expr.getBody() && frameSize == expr.getFrameSize()) {
+            return expr;
+        }
+        Expr.Function function = new Expr.Function(expr.getParams(), body);
+        function.setFrameSize(frameSize);
+        function.setFirstParam(expr.getFirstParam());
+        function.setProfile(expr.getProfile());
+        function.setClosures(expr.getClosures());
+        function.setCaptureDepths(expr.getCaptureDepths());
+        function.setCaptureSlots(expr.getCaptureSlots());
+        function.setCapturedParams(expr.getCapturedParams());
+        return function;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.getObject());
+        if (object == expr.getObject()) {
+            return expr;
+        }
+        return new Expr.Get(object, expr.getName());
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.getObject());
+        Expr value = optimize(expr.getValue());
+        if (object == expr.getObject() && value == expr.getValue()) {
+            return expr;
+        }
+        return new Expr.Set(object, expr.getName(), value);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.getExpression());
+        if (isPure(expression)) {
+            return removed("unused", stmt);
+        }
+        return expression == stmt.getExpression() ? stmt : new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.getExpression());
+        return expression == stmt.getExpression() ? stmt : new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (null == stmt.getInitializer()) {
+            return stmt;
+        }
+        Expr initializer = optimize(stmt.getInitializer());
+        if (initializer == stmt.getInitializer()) {
+            return stmt;
+        }
+        Stmt.Var var = new Stmt.Var(stmt.getName(), initializer);
+        var.setSlot(stmt.getSlot());
+        var.setCaptured(stmt.getCaptured());
+        return var;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        if (null == stmt.getStatements()) {
+            return stmt;
+        }
+        if (stmt.getScoped()) {
+            frames.push(new Frame(stmt.getFrameSize()));
+        }
+        List<Stmt> statements = optimizeAll(stmt.getStatements());
+        int frameSize = stmt.getScoped() ? frames.pop().size : stmt.getFrameSize();
+        if (statements.isEmpty()) {
+            return null;
+        }
+        if (statements == stmt.getStatements() && frameSize == stmt.getFrameSize()) {
+            return stmt;
+        }
+        Stmt.Block block = new Stmt.Block(statements);
+        block.setFrameSize(frameSize);
+        block.setScoped(stmt.getScoped());
+        block.setClosures(stmt.getClosures());
+        return block;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.getCondition());
+        if (condition instanceof Expr.Literal literal) {
+            // only the taken branch is left, or nothing
+            Stmt taken = Interpreter.isTruthy(literal.getValue()) ? stmt.getThenStatement() : stmt.getElseStatement();
+            removed("constant condition", stmt);
+            return null == taken ? null : optimize(taken);
+        }
+        Stmt thenStatement = optimize(stmt.getThenStatement());
+        Stmt elseStatement = null == stmt.getElseStatement() ? null : optimize(stmt.getElseStatement());
+        if (null == thenStatement && null == elseStatement) {
+            // the condition is still evaluated for its effects
+            return isPure(condition) ? null : new Stmt.Expression(condition);
+        }
+        if (null == thenStatement) {
+            thenStatement = empty();
+        }
+        if (condition == stmt.getCondition() && thenStatement == stmt.getThenStatement()
+                && elseStatement == stmt.getElseStatement()) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenStatement, elseStatement);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.getCondition());
+        if (condition instanceof Expr.Literal literal && !Interpreter.isTruthy(literal.getValue())) {
+            return removed("dead loop", stmt);
+        }
+        // a top-level loop has a frame of its own, the temporaries of its inlined calls go there
+        boolean framed = frames.isEmpty();
+        if (framed) {
+            frames.push(new Frame(stmt.getFrameSize()));
+        }
+        Stmt body = optimize(stmt.getBody());
+        int frameSize = framed ? frames.pop().size : stmt.getFrameSize();
+        if (null == body) {
+            body = empty();
+        }
+        if (condition == stmt.getCondition() && body == stmt.getBody() && frameSize == stmt.getFrameSize()) {
+            return stmt;
+        }
+        Stmt.While loop = new Stmt.While(condition, body);
+        loop.setFrameSize(frameSize);
+        loop.setProfile(stmt.getProfile());
+        return loop;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        Expr.Function function = (Expr.Function) optimize(stmt.getFunction());
+        if (function == stmt.getFunction()) {
+            return stmt;
+        }
+        Stmt.Function copy = new Stmt.Function(stmt.getName(), function);
+        copy.setSlot(stmt.getSlot());
+        copy.setCaptured(stmt.getCaptured());
+        return copy;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (null == stmt.getValue()) {
+            return stmt;
+        }
+        Expr value = optimize(stmt.getValue());
+        if (value == stmt.getValue()) {
+            return stmt;
+        }
+        Stmt.Return copy = new Stmt.Return(stmt.getKeyword(), value);
+        // an inlined call is no tail call
+        copy.setTailCall(stmt.getTailCall() && value instanceof Expr.Call);
+        return copy;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = optimizeFunctions(stmt.getMethods());
+        List<Stmt.Function> classMethods = optimizeFunctions(stmt.getClassMethods());
+        if (methods == stmt.getMethods() && classMethods == stmt.getClassMethods()) {
+            return stmt;
+        }
+        Stmt.Class copy = new Stmt.Class(stmt.getName(), stmt.getSuperclass(), methods, classMethods);
+        copy.setSlot(stmt.getSlot());
+        copy.setCaptured(stmt.getCaptured());
+        copy.setSuperMethods(stmt.getSuperMethods());
+        return copy;
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    /**
+     * @return the optimized statements, or the same list if none of them changed
+     */
+    private List<Stmt> optimizeAll(List<Stmt> stmts) {
+        List<Stmt> optimized = new ArrayList<>(stmts.size());
+        boolean changed = false;
+        for (int i = 0; i < stmts.size(); i++) {
+            Stmt stmt = stmts.get(i);
+            Stmt result = optimize(stmt);
+            changed |= result != stmt;
+            if (null == result) {
+                continue;
+            }
+            optimized.add(result);
+            if (completesAbruptly(result) && i + 1 < stmts.size()) {
+                stmts.subList(i + 1, stmts.size()).forEach(unreachable -> removed("unreachable", unreachable));
+                return optimized;
+            }
+        }
+        return changed ? optimized : stmts;
+    }
+
+    private List<Expr> optimizeExprs(List<Expr> exprs) {
+        List<Expr> optimized = new ArrayList<>(exprs.size());
+        boolean changed = false;
+        for (Expr expr : exprs) {
+            Expr result = optimize(expr);
+            changed |= result != expr;
+            optimized.add(result);
+        }
+        return changed ? optimized : exprs;
+    }
+
+    private List<Stmt.Function> optimizeFunctions(List<Stmt.Function> functions) {
+        List<Stmt.Function> optimized = new ArrayList<>(functions.size());
+        boolean changed = false;
+        for (Stmt.Function function : functions) {
+            Stmt.Function result = (Stmt.Function) optimize(function);
+            changed |= result != function;
+            optimized.add(result);
+        }
+        return changed ? optimized : functions;
+    }
+
+    /**
+     * Finds the declarations to inline among the top-level ones: functions whose name is declared
+     * once and methods whose name no other method has, returning an expression that can be copied.
+     */
+    private void findInlineable(List<Stmt> stmts) {
+        Set<String> globals = new HashSet<>();
+        Set<String> methodNames = new HashSet<>();
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof Stmt.Function function) {
+                offer(functions, globals, function.getName(), function.getFunction());
+            } else if (stmt instanceof Stmt.Var var) {
+                offer(functions, globals, var.getName(), null);
+            } else if (stmt instanceof Stmt.Class klass) {
+                offer(functions, globals, klass.getName(), null);
+                klass.getMethods().forEach(method -> offer(methods, methodNames, method.getName(), method.getFunction()));
+                klass.getClassMethods().forEach(method -> offer(methods, methodNames, method.getName(), method.getFunction()));
+            }
+        }
+    }
+
+    private static void offer(Map<String, Expr.Function> inlined, Set<String> names, Token name, Expr.Function function) {
+        if (!names.add(name.getLexeme())) {
+            inlined.remove(name.getLexeme());
+        } else if (null != function && !function.getClosures() && null != returned(function)
+                && size(returned(function)) <= MAX_INLINED_SIZE) {
+            inlined.put(name.getLexeme(), function);
+        }
+    }
+
+    /**
+     * @return the declaration a call of the callee is inlined with, or null
+     */
+    private Expr.Function inlined(Expr callee) {
+        if (callee instanceof Expr.Variable variable && variable.getDepth() < 0) {
+            return functions.get(variable.getName().getLexeme());
+        }
+        if (callee instanceof Expr.Get get) {
+            return methods.get(get.getName().getLexeme());
+        }
+        return null;
+    }
+
+    /**
+     * @return the expression a body made of a single return statement returns, or null
+     */
+    private static Expr returned(Expr.Function function) {
+        List<Stmt> body = function.getBody();
+        if (body.size() == 1 && body.get(0) instanceof Stmt.Return returnStmt) {
+            return returnStmt.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of nodes of an expression to inline, or more than the maximum if it
+     * has a node that does not mean the same at the call site: a call, an assignment, a closure,
+     * a variable of an enclosing function
+     */
+    private static int size(Expr expr) {
+        int tooLarge = MAX_INLINED_SIZE + 1;
+        if (expr instanceof Expr.Literal) {
+            return 1;
+        }
+        if (expr instanceof Expr.Variable variable) {
+            return variable.getDepth() <= 0 ? 1 : tooLarge;
+        }
+        if (expr instanceof Expr.This thisExpr) {
+            return thisExpr.getDepth() == 0 ? 1 : tooLarge;
+        }
+        if (expr instanceof Expr.Grouping grouping) {
+            return 1 + size(grouping.getExpression());
+        }
+        if (expr instanceof Expr.Unary unary) {
+            return 1 + size(unary.getRight());
+        }
+        if (expr instanceof Expr.Get get) {
+            return 1 + size(get.getObject());
+        }
+        if (expr instanceof Expr.Binary binary) {
+            return 1 + size(binary.getLeft()) + size(binary.getRight());
+        }
+        if (expr instanceof Expr.Logical logical) {
+            return 1 + size(logical.getLeft()) + size(logical.getRight());
+        }
+        if (expr instanceof Expr.Ternary ternary) {
+            return 1 + size(ternary.getExpr()) + size(ternary.getThenBranch()) + size(ternary.getElseBranch());
+        }
+        return tooLarge;
+    }
+
+    /**
+     * Copies an expression accepted by {@link #size} for a call site: the callee's frame slots
+     * become the call site's temporaries starting at base.
+     */
+    private static Expr relocate(Expr expr, int base) {
+        if (expr instanceof Expr.Variable variable) {
+            if (variable.getDepth() < 0) {
+                return variable;
+            }
+            Expr.Variable copy = new Expr.Variable(variable.getName());
+            copy.setDepth(0);
+            copy.setSlot(base + variable.getSlot());
+            return copy;
+        }
+        if (expr instanceof Expr.This thisExpr) {
+            Expr.This copy = new Expr.This(thisExpr.getKeyword());
+            copy.setDepth(0);
+            copy.setSlot(base + thisExpr.getSlot());
+            return copy;
+        }
+        if (expr instanceof Expr.Grouping grouping) {
+            return new Expr.Grouping(relocate(grouping.getExpression(), base));
+        }
+        if (expr instanceof Expr.Unary unary) {
+            return new Expr.Unary(unary.getOperator(), relocate(unary.getRight(), base));
+        }
+        if (expr instanceof Expr.Get get) {
+            return new Expr.Get(relocate(get.getObject(), base), get.getName());
+        }
+        if (expr instanceof Expr.Binary binary) {
+            return new Expr.Binary(relocate(binary.getLeft(), base), binary.getOperator(), relocate(binary.getRight(), base));
+        }
+        if (expr instanceof Expr.Logical logical) {
+            return new Expr.Logical(relocate(logical.getLeft(), base), logical.getOperator(), relocate(logical.getRight(), base));
+        }
+        if (expr instanceof Expr.Ternary ternary) {
+            return new Expr.Ternary(relocate(ternary.getExpr(), base), relocate(ternary.getThenBranch(), base),
+                    relocate(ternary.getElseBranch(), base));
+        }
+        // a literal
+        return expr;
+    }
+
+    /**
+     * @return the literal the operator yields for the two values, or null if it fails at run time
+     */
+    private static Expr fold(TokenType operator, Object left, Object right) {
+        if (operator == TokenType.EQUAL_EQUAL) {
+            return new Expr.Literal(Interpreter.isEqual(left, right));
+        }
+        if (operator == TokenType.BANG_EQUAL) {
+            return new Expr.Literal(!Interpreter.isEqual(left, right));
+        }
+        if (operator == TokenType.COMMA) {
+            return new Expr.Literal(null);
+        }
+        if (operator == TokenType.PLUS && !(left instanceof Double && right instanceof Double)) {
+            // challenge 7.2
+            if (left instanceof String || right instanceof String) {
+                return new Expr.Literal(Interpreter.stringify(left) + Interpreter.stringify(right));
+            }
+            return null;
+        }
+        if (!(left instanceof Double a) || !(right instanceof Double b)) {
+            return null;
+        }
+        return switch (operator) {
+            case PLUS -> new Expr.Literal(a + b);
+            case MINUS -> new Expr.Literal(a - b);
+            case STAR -> new Expr.Literal(a * b);
+            // challenge 7.3: dividing by zero stays a runtime error
+            case SLASH -> b.compareTo(0.0) == 0 ? null : new Expr.Literal(a / b);
+            case GREATER -> new Expr.Literal(a > b);
+            case GREATER_EQUAL -> new Expr.Literal(a >= b);
+            case LESS -> new Expr.Literal(a < b);
+            case LESS_EQUAL -> new Expr.Literal(a <= b);
+            default -> null;
+        };
+    }
+
+    /**
+     * @return whether the statement always ends in a return or a break, so nothing after it runs
+     */
+    private static boolean completesAbruptly(Stmt stmt) {
+        if (stmt instanceof Stmt.Return || stmt instanceof Stmt.Break) {
+            return true;
+        }
+        if (stmt instanceof Stmt.Block block) {
+            // anything after an abrupt statement was already removed
+            List<Stmt> statements = block.getStatements();
+            return null != statements && !statements.isEmpty() && completesAbruptly(statements.get(statements.size() - 1));
+        }
+        if (stmt instanceof Stmt.If ifStmt) {
+            return null != ifStmt.getElseStatement()
+                    && completesAbruptly(ifStmt.getThenStatement()) && completesAbruptly(ifStmt.getElseStatement());
+        }
+        return false;
+    }
+
+    private static Stmt empty() {
+        return new Stmt.Block(List.of());
+    }
+
+    private Stmt removed(String reason, Stmt stmt) {
+        changes.add(reason + ": " + printer.print(List.of(stmt)).replace('\n', ' '));
+        return null;
+    }
+
+    private Expr changed(Expr before, Expr after) {
+        changes.add(printer.print(before) + " => " + printer.print(after));
+        return after;
+    }
+
+    private static Expr unwrap(Expr expr) {
+        while (expr instanceof Expr.Grouping grouping) {
+            expr = grouping.getExpression();
+        }
+        return expr;
+    }
+
+    private static boolean isLiteral(Expr expr, double value) {
+        return expr instanceof Expr.Literal literal && Double.valueOf(value).equals(literal.getValue());
+    }
+
+    /**
+     * @return whether the expression can only evaluate to a number, or fail
+     */
+    private static boolean isNumber(Expr expr) {
+        expr = unwrap(expr);
+        if (expr instanceof Expr.Literal literal) {
+            return literal.getValue() instanceof Double;
+        }
+        if (expr instanceof Expr.Unary unary) {
+            return unary.getOperator().getTokenType() == TokenType.MINUS;
+        }
+        if (expr instanceof Expr.Binary binary) {
+            TokenType type = binary.getOperator().getTokenType();
+            return type == TokenType.MINUS || type == TokenType.STAR || type == TokenType.SLASH;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the expression can only evaluate to a boolean, or fail
+     */
+    private static boolean isBoolean(Expr expr) {
+        expr = unwrap(expr);
+        if (expr instanceof Expr.Literal literal) {
+            return literal.getValue() instanceof Boolean;
+        }
+        if (expr instanceof Expr.Unary unary) {
+            return unary.getOperator().getTokenType() == TokenType.BANG;
+        }
+        if (expr instanceof Expr.Binary binary) {
+            return switch (binary.getOperator().getTokenType()) {
+                case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, EQUAL_EQUAL, BANG_EQUAL -> true;
+                default -> false;
+            };
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the two expressions are the same literal, variable or "this", so either one
+     * yields the value of the other and evaluating it has no effect
+     */
+    private static boolean isSameValue(Expr a, Expr b) {
+        a = unwrap(a);
+        b = unwrap(b);
+        if (a instanceof Expr.Literal literalA && b instanceof Expr.Literal literalB) {
+            return Interpreter.isEqual(literalA.getValue(), literalB.getValue());
+        }
+        if (a instanceof Expr.Variable variableA && b instanceof Expr.Variable variableB) {
+            return variableA.getName().getLexeme().equals(variableB.getName().getLexeme())
+                    && variableA.getDepth() == variableB.getDepth() && variableA.getSlot() == variableB.getSlot()
+                    && variableA.getCell() == variableB.getCell() && variableA.getCaptured() == variableB.getCaptured();
+        }
+        if (a instanceof Expr.This thisA && b instanceof Expr.This thisB) {
+            return thisA.getDepth() == thisB.getDepth() && thisA.getSlot() == thisB.getSlot();
+        }
+        return false;
+    }
+
+    /**
+     * @return whether evaluating the expression can neither fail nor have an effect
+     */
+    private static boolean isPure(Expr expr) {
+        expr = unwrap(expr);
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This || expr instanceof Expr.Function) {
+            return true;
+        }
+        if (expr instanceof Expr.Unary unary) {
+            return unary.getOperator().getTokenType() == TokenType.BANG && isPure(unary.getRight());
+        }
+        if (expr instanceof Expr.Logical logical) {
+            return isPure(logical.getLeft()) && isPure(logical.getRight());
+        }
+        if (expr instanceof Expr.Binary binary) {
+            TokenType type = binary.getOperator().getTokenType();
+            return (type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL || type == TokenType.COMMA)
+                    && isPure(binary.getLeft()) && isPure(binary.getRight());
+        }
+        return false;
+    }
+}
@@ -44,6 +44,8 @@ public class Parser {
     private final List<Token> tokens;
     private int current = 0;
     private int loopDepth = 0;
+    // functions parsed so far, to tell the blocks that declare one
+    private int functionCount = 0;
 
     public Parser(List<Token> tokens) {
         this.tokens = tokens;
@@ -111,6 +113,7 @@ public class Parser {
      * * * parameters → IDENTIFIER ("," IDENTIFIER)*；
      */
     private Expr.Function lambdaFunc(String kind) {
+        functionCount++;
         consume(TokenType.LEFT_PAREN, "Expect '(' after " + kind + " name.");
         List<Token> parmas = new ArrayList<>();
         if (!check(TokenType.RIGHT_PAREN)) {
@@ -124,7 +127,9 @@ public class Parser {
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
         consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind + " body.");
         Stmt.Block body = block();
-        return new Expr.Function(parmas, body.getStatements());
+        Expr.Function function = new Expr.Function(parmas, body.getStatements());
+        function.setClosures(body.getClosures());
+        return function;
     }
 
     // valDecl        → "var" IDENTIFIER (“=” expression)?";" ;
@@ -181,6 +186,7 @@ public class Parser {
 
     // forStmt        → "for ("  (valDecl | exprStmt | ";") expression? ";" expression? ")" statement;
     private Stmt forStmt() {
+        int functions = functionCount;
         consume(TokenType.LEFT_PAREN, "Expect '(' after for.");
         Stmt init;
         if (match(TokenType.SEMICOLON)) {
@@ -213,7 +219,9 @@ public class Parser {
             if (init == null) {
                 return whileStmt;
             } else {
-                return new Stmt.Block(List.of(init, whileStmt));
+                Stmt.Block block = new Stmt.Block(List.of(init, whileStmt));
+                block.setClosures(functionCount > functions);
+                return block;
             }
         } finally {
             loopDepth--;
@@ -248,12 +256,16 @@ public class Parser {
 
     // block          → "{" declaration* "}" ;
     private Stmt.Block block() {
+        int functions = functionCount;
         List<Stmt> stmts = new ArrayList<>();
         while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
             stmts.add(declaration());
         }
         consume(TokenType.RIGHT_BRACE, "Expect '}' after block.");
-        return new Stmt.Block(stmts);
+        Stmt.Block block = new Stmt.Block(stmts);
+        // a function declared inside may capture the block's locals
+        block.setClosures(functionCount > functions);
+        return block;
     }
 
     // printStmt      → "print" expression ";" ;
@@ -321,8 +333,9 @@ public class Parser {
     private Expr logicOr() {
         Expr expr = logicAnd();
         while (match(TokenType.OR)) {
+            Token operator = previous();
             Expr right = logicAnd();
-            expr = new Expr.Logical(expr, previous(), right);
+            expr = new Expr.Logical(expr, operator, right);
         }
         return expr;
     }
@@ -331,8 +344,9 @@ public class Parser {
     private Expr logicAnd() {
         Expr left = equality();
         while (match(TokenType.AND)) {
+            Token operator = previous();
             Expr right = equality();
-            left = new Expr.Logical(left, previous(), right);
+            left = new Expr.Logical(left, operator, right);
         }
         return left;
     }
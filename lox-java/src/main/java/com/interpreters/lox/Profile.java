@@ -0,0 +1,64 @@
+package com.interpreters.lox;
+
+/**
+ * How hot one function is, and the tiers it was promoted to. A function starts tree-walked by the
+ * {@link Interpreter}, and its calls and loop back-edges heat it up. Its body is compiled by the
+ * {@link ClosureCompiler} once the heat reaches {@link #threshold}, and by the {@link JitCompiler}
+ * at {@link JitCompiler#threshold}, so short scripts never pay for compilation.
+ * <p>
+ * Compiled code whose speculation fails deoptimizes the function: it falls back to the closure
+ * tier and heats up again before it is recompiled without the failed speculation.
+ */
+public class Profile {
+    static final int threshold = Integer.getInteger("lox.tier.threshold", 100);
+
+    private long calls = 0;
+    private long backEdges = 0;
+    // the body compiled by the ClosureCompiler, for functions created by the tree-walker
+    private ClosureCompiler.StmtNode optimizedBody;
+    private JitCompiler.CompiledBody compiledBody;
+    // whether the JitCompiler has had its go at the current body: compiled it or rejected it
+    private boolean settled = false;
+
+    public void backEdge() {
+        backEdges++;
+    }
+
+    /**
+     * Counts a call of the function and compiles its body once the function is hot enough.
+     *
+     * @return the compiled body, or null while the function is interpreted
+     */
+    JitCompiler.CompiledBody enter(Expr.Function declaration) {
+        if (settled) {
+            return compiledBody;
+        }
+        calls++;
+        if (JitCompiler.enabled && calls + backEdges >= JitCompiler.threshold) {
+            compiledBody = JitCompiler.tryCompile(declaration);
+            settled = true;
+        }
+        return compiledBody;
+    }
+
+    /**
+     * @return the body compiled by the ClosureCompiler, or null while the function is tree-walked
+     */
+    ClosureCompiler.StmtNode optimizedBody(Interpreter interpreter, Expr.Function declaration) {
+        if (null == optimizedBody && calls + backEdges >= threshold) {
+            optimizedBody = new ClosureCompiler(interpreter).compile(declaration.getBody());
+        }
+        return optimizedBody;
+    }
+
+    /**
+     * Discards the compiled body after a speculation it was compiled with failed. Frames running
+     * it go on in its slow paths.
+     */
+    void deoptimize() {
+        compiledBody = null;
+        settled = false;
+        calls = 0;
+        backEdges = 0;
+    }
+}
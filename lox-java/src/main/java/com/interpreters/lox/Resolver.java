@@ -1,7 +1,8 @@
 package com.interpreters.lox;
 
-import javax.swing.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -9,7 +10,11 @@ import java.util.Stack;
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private final Interpreter interpreter;
     private final Stack<Map<String, Variable>> scopes = new Stack<>();
+    // the frame of each scope; a block merged into the enclosing frame shares its frame
+    private final Stack<Frame> frames = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    // profile of the current function, null at the top level
+    private Profile currentProfile = null;
     private ClassType currentClass = ClassType.NONE;
     private boolean inLoop = false;
 
@@ -27,17 +32,49 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private static class Variable {
         private final Token name;
+        private final int slot;
+        private final Frame frame;
+        // "this" and the methods of the "super" scope are never assigned, closures copy their values
+        private final boolean constant;
         private VariableState state;
+        // whether a closure captures the variable, so its slot holds an Upvalue
+        private boolean captured = false;
+        // marks the declaration and the uses resolved before the variable was captured
+        private List<Runnable> captureSites = new ArrayList<>();
 
-        public Variable(Token name, VariableState state) {
+        public Variable(Token name, int slot, Frame frame, boolean constant, VariableState state) {
             this.name = name;
+            this.slot = slot;
+            this.frame = frame;
+            this.constant = constant;
             this.state = state;
         }
 
+        private void onCapture(Runnable site) {
+            if (captured) {
+                site.run();
+            } else {
+                captureSites.add(site);
+            }
+        }
+
+        private void capture() {
+            if (captured || constant) {
+                return;
+            }
+            captured = true;
+            captureSites.forEach(Runnable::run);
+            captureSites = null;
+        }
+
         public Token getName() {
             return name;
         }
 
+        public int getSlot() {
+            return slot;
+        }
+
         public VariableState getState() {
             return state;
         }
@@ -47,6 +84,34 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
+    /**
+     * Slots of one runtime frame. Blocks merged into the frame take slots after the ones in use
+     * and give them back when they end, so the frame is as large as its deepest nesting.
+     */
+    private static class Frame {
+        // the frame the function or the scope is created in, null at the top level
+        private final Frame enclosing;
+        // whether the frame is a function's, rather than a top-level block's, loop's or a "super" scope's
+        private final boolean function;
+        private int next = 0;
+        private int size = 0;
+        // variables of enclosing frames the function reads, by their index among its upvalues
+        private final Map<Variable, Integer> captures = new LinkedHashMap<>();
+        private final List<Integer> captureDepths = new ArrayList<>();
+        private final List<Integer> captureSlots = new ArrayList<>();
+        private final List<Integer> capturedParams = new ArrayList<>();
+
+        private Frame(Frame enclosing, boolean function) {
+            this.enclosing = enclosing;
+            this.function = function;
+        }
+
+        private int allocate() {
+            size = Math.max(size, next + 1);
+            return next++;
+        }
+    }
+
     public Resolver(Interpreter interpreter) {
         this.interpreter = interpreter;
     }
@@ -54,7 +119,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignmentExpr(Expr.Assignment expr) {
         resolve(expr.getValue());
-        resolveLocal(expr, expr.getName(), false);
+        Variable variable = resolveLocal(expr.getName().getLexeme(), false);
+        if (null != variable) {
+            expr.setDepth(depthOf(variable));
+            expr.setSlot(slotOf(variable));
+            variable.onCapture(() -> expr.setCaptured(true));
+        } else {
+            expr.setCell(interpreter.globalCell(expr.getName().getLexeme()));
+        }
         return null;
     }
 
@@ -96,7 +168,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 && scopes.peek().get(expr.getName().getLexeme()).getState() == VariableState.DECLARED) {
             Lox.error(expr.getName(), "Can't read local variable in its own initializer.");
         }
-        resolveLocal(expr, expr.getName(), true);
+        Variable variable = resolveLocal(expr.getName().getLexeme(), true);
+        if (null != variable) {
+            expr.setDepth(depthOf(variable));
+            expr.setSlot(slotOf(variable));
+            variable.onCapture(() -> expr.setCaptured(true));
+        } else {
+            expr.setCell(interpreter.globalCell(expr.getName().getLexeme()));
+        }
         return null;
     }
 
@@ -114,6 +193,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        // inlining runs on the resolved tree
+        resolve(expr.getCall());
+        return null;
+    }
+
     @Override
     public Void visitFunctionExpr(Expr.Function expr) {
         resolveFunction(expr, FunctionType.FUNCTION);
@@ -140,7 +226,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Lox.error(expr.getKeyword(), "Can't use 'this' outside of class.");
             return null;
         }
-        resolveLocal(expr, expr.getKeyword(), true);
+        Variable self = resolveLocal(expr.getKeyword().getLexeme(), true);
+        expr.setDepth(depthOf(self));
+        expr.setSlot(slotOf(self));
         return null;
     }
 
@@ -151,7 +239,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         } else if (currentClass != ClassType.SUBCLASS) {
             Lox.error(expr.getKeyword(), "Can't use 'super' in a class with no superclass.");
         }
-        resolveLocal(expr, expr.getKeyword(), true);
+        // the scope of "super" encloses the frames of the class's methods
+        int index = scopeOf(expr.getKeyword().getLexeme());
+        if (index >= 0) {
+            // the method is looked up once, when the class is defined, into a slot of the "super" scope
+            Map<String, Variable> scope = scopes.get(index);
+            Frame frame = frames.get(index);
+            String name = "super." + expr.getMethod().getLexeme();
+            Variable method = scope.computeIfAbsent(name,
+                    key -> new Variable(expr.getMethod(), frame.allocate(), frame, true, VariableState.READ));
+            expr.setDepth(depthOf(method));
+            expr.setSlot(slotOf(method));
+            Variable self = resolveLocal("this", true);
+            expr.setThisDepth(depthOf(self));
+            expr.setThisSlot(slotOf(self));
+        }
         return null;
     }
 
@@ -169,7 +271,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.getName());
+        stmt.setSlot(declare(stmt.getName(), () -> stmt.setCaptured(true)));
         if (null != stmt.getInitializer()) {
             resolve(stmt.getInitializer());
         }
@@ -179,9 +281,26 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        if (null == stmt.getStatements() || stmt.getStatements().stream().noneMatch(Resolver::isDeclaration)) {
+            // nothing to keep, the block runs in the enclosing frame
+            resolve(stmt.getStatements());
+            return null;
+        }
+        if (frames.isEmpty()) {
+            beginScope(false);
+            resolve(stmt.getStatements());
+            stmt.setFrameSize(endScope());
+            stmt.setScoped(true);
+            return null;
+        }
+        // the locals take free slots of the enclosing frame, closures capture them through upvalues
+        Frame frame = frames.peek();
+        int next = frame.next;
+        scopes.push(new HashMap<>());
+        frames.push(frame);
         resolve(stmt.getStatements());
         endScope();
+        frame.next = next;
         return null;
     }
 
@@ -199,8 +318,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitWhileStmt(Stmt.While stmt) {
         boolean enclosing = inLoop;
         inLoop = true;
+        // the back-edges heat up the function
+        stmt.setProfile(currentProfile);
+        if (!frames.isEmpty()) {
+            resolve(stmt.getCondition());
+            resolve(stmt.getBody());
+            inLoop = enclosing;
+            return null;
+        }
+        // a top-level loop is given a frame for the blocks of its body, made once for all its iterations
+        beginScope(false);
         resolve(stmt.getCondition());
         resolve(stmt.getBody());
+        stmt.setFrameSize(endScope());
         inLoop = enclosing;
         return null;
     }
@@ -215,7 +345,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.getName());
+        stmt.setSlot(declare(stmt.getName(), () -> stmt.setCaptured(true)));
         define(stmt.getName());
         resolveFunction(stmt.getFunction(), FunctionType.FUNCTION);
         return null;
@@ -231,13 +361,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 Lox.error(stmt.getKeyword(), "Can't return a value from an initializer.");
             }
             resolve(stmt.getValue());
+            // the call is made by the caller's trampoline, after this function's frames are gone
+            stmt.setTailCall(stmt.getValue() instanceof Expr.Call && currentFunction != FunctionType.INITIALIZER);
         }
         return null;
     }
 
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
-        declare(stmt.getName());
+        stmt.setSlot(declare(stmt.getName(), () -> stmt.setCaptured(true)));
         define(stmt.getName());
 
         if (stmt.getSuperclass() != null) {
@@ -250,27 +382,27 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(stmt.getSuperclass());
             // Before we can get to creating the environment at runtime,
             // we need to handle the corresponding scope chain in the resolver
-            beginScope();
-            scopes.peek().put("super", new Variable(stmt.getSuperclass().getName(), VariableState.READ));
+            beginScope(false);
+            Frame frame = frames.peek();
+            scopes.peek().put("super", new Variable(stmt.getSuperclass().getName(), frame.allocate(), frame, true, VariableState.READ));
         }
 
         ClassType enclosing = currentClass;
         currentClass = stmt.getSuperclass() == null ? ClassType.CLASS : ClassType.SUBCLASS;
-        beginScope();
-        scopes.peek().put("this", new Variable(stmt.getName(), VariableState.READ));
         stmt.getMethods().forEach(method -> {
             FunctionType functionType = method.getName().getLexeme().equals("init") ?
                     FunctionType.INITIALIZER : FunctionType.METHOD;
             resolveFunction(method.getFunction(), functionType);
         });
-        stmt.getClassMethods().forEach(method -> {
-            beginScope();
-            scopes.peek().put("this", new Variable(stmt.getName(), VariableState.READ));
-            resolveFunction(method.getFunction(), FunctionType.METHOD);
-            endScope();
-        });
-        endScope();
+        stmt.getClassMethods().forEach(method -> resolveFunction(method.getFunction(), FunctionType.METHOD));
         if (null != stmt.getSuperclass()) {
+            String[] superMethods = new String[scopes.peek().size() - 1];
+            scopes.peek().forEach((name, variable) -> {
+                if (variable.getSlot() > 0) {
+                    superMethods[variable.getSlot() - 1] = variable.getName().getLexeme();
+                }
+            });
+            stmt.setSuperMethods(List.of(superMethods));
             endScope();
         }
         currentClass = enclosing;
@@ -279,39 +411,135 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void resolveFunction(Expr.Function function, FunctionType type) {
         FunctionType enclosing = currentFunction;
+        Profile enclosingProfile = currentProfile;
         currentFunction = type;
-        beginScope();
+        currentProfile = function.getProfile();
+        beginScope(true);
+        Frame frame = frames.peek();
+        // methods receive "this" in slot 0 of their own frame, before the parameters
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            scopes.peek().put("this", new Variable(null, frame.allocate(), frame, true, VariableState.READ));
+            function.setFirstParam(1);
+        } else {
+            function.setFirstParam(0);
+        }
         function.getParams().forEach(token -> {
-            declare(token);
+            Variable param = declare(token);
             define(token);
+            param.onCapture(() -> frame.capturedParams.add(param.getSlot()));
         });
         resolve(function.getBody());
-        endScope();
+        function.setFrameSize(endScope());
+        function.setCaptureDepths(toArray(frame.captureDepths));
+        function.setCaptureSlots(toArray(frame.captureSlots));
+        function.setCapturedParams(toArray(frame.capturedParams));
         currentFunction = enclosing;
+        currentProfile = enclosingProfile;
     }
 
-    private void resolveLocal(Expr expr, Token name, boolean isRead) {
+    /**
+     * @return the local the name refers to, or null if it is a global
+     */
+    private Variable resolveLocal(String name, boolean isRead) {
+        int i = scopeOf(name);
+        if (i < 0) {
+            return null;
+        }
+        Variable variable = scopes.get(i).get(name);
+        if (isRead) {
+            variable.setState(VariableState.READ);
+        }
+        return variable;
+    }
+
+    /**
+     * @return 0 for a local of the current frame, 1 for an upvalue of the current function
+     */
+    private int depthOf(Variable variable) {
+        return variable.frame == frames.peek() ? 0 : 1;
+    }
+
+    /**
+     * @return the slot of a local of the current frame, or the index of the current function's upvalue
+     */
+    private int slotOf(Variable variable) {
+        return variable.frame == frames.peek() ? variable.getSlot() : capture(frames.peek(), variable);
+    }
+
+    /**
+     * Makes the variable of an enclosing frame an upvalue of the function, and of every function
+     * in between, which copy it from the frames they are created in.
+     *
+     * @return the index of the upvalue
+     */
+    private int capture(Frame function, Variable variable) {
+        Integer index = function.captures.get(variable);
+        if (null != index) {
+            return index;
+        }
+        variable.capture();
+        // the scopes between the function and the next enclosing function are frames of their own
+        Frame frame = function.enclosing;
+        int depth = 0;
+        while (frame != variable.frame && !frame.function) {
+            frame = frame.enclosing;
+            depth++;
+        }
+        if (frame == variable.frame) {
+            function.captureDepths.add(depth);
+            function.captureSlots.add(variable.getSlot());
+        } else {
+            // past the frame, the environment chain goes on with the upvalues of the enclosing function
+            function.captureDepths.add(depth + 1);
+            function.captureSlots.add(capture(frame, variable));
+        }
+        index = function.captures.size();
+        function.captures.put(variable, index);
+        return index;
+    }
+
+    /**
+     * @return the index of the innermost scope declaring the name, or -1 if it is a global
+     */
+    private int scopeOf(String name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.getLexeme())) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                if (isRead) {
-                    scopes.get(i).get(name.getLexeme()).setState(VariableState.READ);
-                }
-                return;
+            if (scopes.get(i).containsKey(name)) {
+                return i;
             }
         }
+        return -1;
+    }
+
+    /**
+     * @return the slot of the variable in its frame, or -1 if it is a global
+     */
+    private int declare(Token name, Runnable onCapture) {
+        Variable variable = declare(name);
+        if (null == variable) {
+            return -1;
+        }
+        variable.onCapture(onCapture);
+        return variable.getSlot();
     }
 
-    private void declare(Token name) {
+    /**
+     * @return the local, or null if it is a global
+     */
+    private Variable declare(Token name) {
         if (scopes.isEmpty()) {
-            return;
+            return null;
         }
         Map<String, Variable> scope = scopes.peek();
-        if (scope.containsKey(name.getLexeme())) {
+        Variable previous = scope.get(name.getLexeme());
+        if (previous != null) {
             Lox.error(name, "Already a variable with this name in this scope.");
         }
-        // variable is not ready
-        scope.put(name.getLexeme(), new Variable(name, VariableState.DECLARED));
+        // variable is not ready, a redeclaration (already reported) reuses the old slot
+        Frame frame = frames.peek();
+        int slot = previous == null ? frame.allocate() : previous.getSlot();
+        Variable variable = new Variable(name, slot, frame, false, VariableState.DECLARED);
+        scope.put(name.getLexeme(), variable);
+        return variable;
     }
 
     private void define(Token name) {
@@ -322,17 +550,32 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         scopes.peek().get(name.getLexeme()).setState(VariableState.DEFINED);
     }
 
-    private void beginScope() {
+    private void beginScope(boolean function) {
+        Frame enclosing = frames.isEmpty() ? null : frames.peek();
         scopes.push(new HashMap<>());
+        frames.push(new Frame(enclosing, function));
     }
 
-    private void endScope() {
+    /**
+     * @return the number of slots the frame of the closed scope needs
+     */
+    private int endScope() {
         Map<String, Variable> scope = scopes.pop();
+        Frame frame = frames.pop();
         scope.forEach((k, v) -> {
             if (v.getState() != VariableState.READ) {
                 Lox.error(v.getName(), "Local variable is not used.");
             }
         });
+        return frame.size;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static boolean isDeclaration(Stmt stmt) {
+        return stmt instanceof Stmt.Var || stmt instanceof Stmt.Function || stmt instanceof Stmt.Class;
     }
 
     public void resolve(List<Stmt> statements) {
@@ -2,13 +2,26 @@ package com.interpreters.lox;
 
 public class RuntimeError extends RuntimeException {
     private final Token token;
+    private final int line;
 
     public RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
+        this.line = token.getLine();
+    }
+
+    // for errors raised where only the source line is known, e.g. by the bytecode VM
+    public RuntimeError(int line, String message) {
+        super(message);
+        this.token = null;
+        this.line = line;
     }
 
     public Token getToken() {
         return token;
     }
+
+    public int getLine() {
+        return line;
+    }
 }
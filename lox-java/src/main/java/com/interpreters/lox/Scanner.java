@@ -52,13 +52,13 @@ public class Scanner {
         keyWords.put("break", TokenType.BREAK);
     }
 
-    private final String source;
+    private final CharSequence source;
     private final List<Token> tokens = new ArrayList<>();
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    public Scanner(String source) {
+    public Scanner(CharSequence source) {
         this.source = source;
     }
 
@@ -124,7 +124,7 @@ public class Scanner {
         while (peek() != '\n' && !isAtEnd()) {
             advance();
         }
-        addToken(TokenType.COMMENT, source.substring(start + 2, current).trim());
+        addToken(TokenType.COMMENT, text(start + 2, current).trim());
     }
 
     /**
@@ -149,7 +149,7 @@ public class Scanner {
         }
         advance();
         advance();
-        addToken(TokenType.COMMENT, source.substring(start + 2, current - 2).trim());
+        addToken(TokenType.COMMENT, text(start + 2, current - 2).trim());
     }
 
     private void string() {
@@ -162,7 +162,7 @@ public class Scanner {
             return;
         }
         advance();
-        String str = source.substring(start + 1, current - 1);
+        String str = text(start + 1, current - 1);
         addToken(TokenType.STRING, str);
     }
 
@@ -177,19 +177,26 @@ public class Scanner {
                 advance();
             }
         }
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(TokenType.NUMBER, Double.parseDouble(text(start, current)));
     }
 
     private void identifier() {
         while (isAlphaNumeric(peek())) {
             advance();
         }
-        String text = source.substring(start, current);
+        String text = SymbolTable.intern(source, start, current);
         TokenType type = keyWords.get(text);
         if (type == null) {
             type = TokenType.IDENTIFIER;
         }
-        addToken(type);
+        tokens.add(new Token(type, text, null, line));
+    }
+
+    /**
+     * @return a copy of the characters of the source between start and end
+     */
+    private String text(int start, int end) {
+        return source.subSequence(start, end).toString();
     }
 
     private char advance() {
@@ -234,6 +241,7 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        tokens.add(new Token(type, source.substring(start, current), literal, line));
+        // names are interned by identifier(), other lexemes are copied
+        tokens.add(new Token(type, text(start, current), literal, line));
     }
 }
@@ -0,0 +1,74 @@
+package com.interpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hidden class of a {@link LoxInstance}: which field lives in which slot of the instance's array.
+ * Instances built by adding the same fields in the same order share a shape, reached from their
+ * class's root shape through a tree of transitions, one per added field. Shapes never change, so
+ * an {@link InlineCache} can remember a slot per shape.
+ */
+public class Shape {
+    // beyond these an instance keeps its fields in a map instead
+    static final int MAX_FIELDS = 64;
+    static final int MAX_TRANSITIONS = 16;
+
+    private final Shape root;
+    private final Map<String, Integer> slots;
+    private Map<String, Shape> transitions = null;
+    // on the root: the largest number of fields any shape of the tree has, used to size new instances
+    private int expectedSize = 0;
+
+    public Shape() {
+        this.root = this;
+        this.slots = Map.of();
+    }
+
+    private Shape(Shape parent, String name) {
+        this.root = parent.root;
+        this.slots = new HashMap<>(parent.slots);
+        this.slots.put(name, parent.size());
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * @return the slot of the field, or -1 if instances of this shape have no such field
+     */
+    public int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return null == slot ? -1 : slot;
+    }
+
+    /**
+     * @return the shape of an instance of this shape after adding the field, whose slot is
+     * {@link #size()}, or null if the instance should switch to a map of fields
+     */
+    public Shape withField(String name) {
+        Shape next = null == transitions ? null : transitions.get(name);
+        if (null != next) {
+            return next;
+        }
+        if (size() >= MAX_FIELDS || (null != transitions && transitions.size() >= MAX_TRANSITIONS)) {
+            return null;
+        }
+        if (null == transitions) {
+            transitions = new HashMap<>();
+        }
+        next = new Shape(this, name);
+        transitions.put(name, next);
+        root.expectedSize = Math.max(root.expectedSize, next.size());
+        return next;
+    }
+
+    int getExpectedSize() {
+        return root.expectedSize;
+    }
+
+    Map<String, Integer> getSlots() {
+        return slots;
+    }
+}
@@ -0,0 +1,86 @@
+package com.interpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads scripts for the {@link Scanner}. The file is memory-mapped and read as UTF-8 whatever the
+ * locale of the host. A script in plain ASCII, like most, is scanned straight from the mapping,
+ * without copying it onto the heap; any other script is decoded once into a {@link java.nio.CharBuffer}.
+ */
+final class Source {
+    private static final int BYTE_ORDER_MARK = 0xFEFF;
+
+    private Source() {
+    }
+
+    /**
+     * @return the characters of the file
+     * @throws java.nio.charset.CharacterCodingException if the file is not valid UTF-8
+     */
+    static CharSequence load(Path path) throws IOException {
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (isAscii(bytes)) {
+            return new AsciiView(bytes);
+        }
+        CharSequence chars = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(bytes);
+        if (chars.length() > 0 && chars.charAt(0) == BYTE_ORDER_MARK) {
+            return chars.subSequence(1, chars.length());
+        }
+        return chars;
+    }
+
+    private static boolean isAscii(ByteBuffer bytes) {
+        for (int i = 0, limit = bytes.limit(); i < limit; i++) {
+            if (bytes.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * ASCII bytes read as the chars of the same code.
+     */
+    private static final class AsciiView implements CharSequence {
+        private final ByteBuffer bytes;
+
+        private AsciiView(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) bytes.get(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AsciiView(bytes.slice(start, end - start));
+        }
+
+        @Override
+        public String toString() {
+            byte[] copy = new byte[bytes.limit()];
+            bytes.get(0, copy);
+            return new String(copy, StandardCharsets.US_ASCII);
+        }
+    }
+}
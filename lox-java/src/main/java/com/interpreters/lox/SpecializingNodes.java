@@ -0,0 +1,787 @@
+package com.interpreters.lox;
+
+import com.interpreters.lox.ClosureCompiler.ExprNode;
+
+/**
+ * Self-specializing nodes of the {@link ClosureCompiler} tree. Arithmetic, comparison, property and
+ * call sites start uninitialized, rewrite themselves on their first execution to a variant
+ * specialized for what they observed (number operands, string operands, a function callee, ...)
+ * and rewrite themselves to the generic variant, for good, the first time that speculation fails.
+ * A type-stable site only pays for the guard of its specialization.
+ * <p>
+ * Number specializations compute through {@link ExprNode#evalDouble} and
+ * {@link ExprNode#evalBoolean}, so nested arithmetic and comparisons pass doubles and booleans
+ * unboxed; a number is only boxed when it leaves the expression.
+ */
+final class SpecializingNodes {
+    private SpecializingNodes() {
+    }
+
+    /**
+     * The parent's handle on a rewritable node. Variants replace themselves by storing their
+     * successor here, so the parent never sees the rewrite.
+     */
+    private static final class Site implements ExprNode {
+        private ExprNode node;
+
+        @Override
+        public Object eval(Environment environment) {
+            return node.eval(environment);
+        }
+
+        @Override
+        public double evalDouble(Environment environment) throws UnexpectedResultException {
+            return node.evalDouble(environment);
+        }
+
+        @Override
+        public boolean evalBoolean(Environment environment) {
+            return node.evalBoolean(environment);
+        }
+    }
+
+    static ExprNode binary(Token operator, ExprNode left, ExprNode right) {
+        Site site = new Site();
+        site.node = new UninitializedBinary(site, operator, left, right);
+        return site;
+    }
+
+    static ExprNode get(ExprNode object, Token name, InlineCache cache) {
+        Site site = new Site();
+        site.node = new UninitializedGet(site, object, name, cache);
+        return site;
+    }
+
+    static ExprNode set(ExprNode object, Token name, ExprNode value, InlineCache cache) {
+        Site site = new Site();
+        site.node = new UninitializedSet(site, object, name, value, cache);
+        return site;
+    }
+
+    static ExprNode call(Interpreter interpreter, Token paren, ExprNode callee, ExprNode[] arguments) {
+        Site site = new Site();
+        site.node = new UninitializedCall(site, interpreter, paren, callee, arguments);
+        return site;
+    }
+
+    static ExprNode invoke(Interpreter interpreter, Token paren, ExprNode object, Token name, ExprNode[] arguments,
+                           InlineCache cache) {
+        return new Invoke(interpreter, paren, object, name, arguments, cache);
+    }
+
+    private abstract static class BinaryNode implements ExprNode {
+        final Site site;
+        final Token operator;
+        final ExprNode left;
+        final ExprNode right;
+
+        BinaryNode(Site site, Token operator, ExprNode left, ExprNode right) {
+            this.site = site;
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        final Object generalize(Object l, Object r) {
+            site.node = new GenericBinary(this);
+            return generic(operator, l, r);
+        }
+
+        static double expectDouble(Object value) throws UnexpectedResultException {
+            if (value instanceof Double number) {
+                return number;
+            }
+            throw new UnexpectedResultException(value);
+        }
+    }
+
+    private static final class UninitializedBinary extends BinaryNode {
+        UninitializedBinary(Site site, Token operator, ExprNode left, ExprNode right) {
+            super(site, operator, left, right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object l = left.eval(environment);
+            Object r = right.eval(environment);
+            site.node = specialize(l, r);
+            return generic(operator, l, r);
+        }
+
+        private ExprNode specialize(Object l, Object r) {
+            if (l instanceof Double && r instanceof Double) {
+                switch (operator.getTokenType()) {
+                    case PLUS -> {
+                        return new AddNumbers(this);
+                    }
+                    case MINUS -> {
+                        return new SubtractNumbers(this);
+                    }
+                    case STAR -> {
+                        return new MultiplyNumbers(this);
+                    }
+                    case SLASH -> {
+                        return new DivideNumbers(this);
+                    }
+                    case GREATER -> {
+                        return new GreaterNumbers(this);
+                    }
+                    case GREATER_EQUAL -> {
+                        return new GreaterEqualNumbers(this);
+                    }
+                    case LESS -> {
+                        return new LessNumbers(this);
+                    }
+                    case LESS_EQUAL -> {
+                        return new LessEqualNumbers(this);
+                    }
+                }
+            }
+            if (operator.getTokenType() == TokenType.PLUS && l instanceof CharSequence && r instanceof CharSequence) {
+                return new ConcatStrings(this);
+            }
+            return new GenericBinary(this);
+        }
+    }
+
+    private static final class GenericBinary extends BinaryNode {
+        GenericBinary(BinaryNode node) {
+            super(node.site, node.operator, node.left, node.right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object l = left.eval(environment);
+            return generic(operator, l, right.eval(environment));
+        }
+    }
+
+    private static final class AddNumbers extends BinaryNode {
+        AddNumbers(BinaryNode node) {
+            super(node.site, node.operator, node.left, node.right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            try {
+                return evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return e.getResult();
+            }
+        }
+
+        @Override
+        public double evalDouble(Environment environment) throws UnexpectedResultException {
+            double a;
+            try {
+                a = left.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(e.getResult(), right.eval(environment)));
+            }
+            double b;
+            try {
+                b = right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(a, e.getResult()));
+            }
+            return a + b;
+        }
+    }
+
+    private static final class SubtractNumbers extends BinaryNode {
+        SubtractNumbers(BinaryNode node) {
+            super(node.site, node.operator, node.left, node.right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            try {
+                return evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return e.getResult();
+            }
+        }
+
+        @Override
+        public double evalDouble(Environment environment) throws UnexpectedResultException {
+            double a;
+            try {
+                a = left.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(e.getResult(), right.eval(environment)));
+            }
+            double b;
+            try {
+                b = right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(a, e.getResult()));
+            }
+            return a - b;
+        }
+    }
+
+    private static final class MultiplyNumbers extends BinaryNode {
+        MultiplyNumbers(BinaryNode node) {
+            super(node.site, node.operator, node.left, node.right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            try {
+                return evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return e.getResult();
+            }
+        }
+
+        @Override
+        public double evalDouble(Environment environment) throws UnexpectedResultException {
+            double a;
+            try {
+                a = left.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(e.getResult(), right.eval(environment)));
+            }
+            double b;
+            try {
+                b = right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(a, e.getResult()));
+            }
+            return a * b;
+        }
+    }
+
+    private static final class DivideNumbers extends BinaryNode {
+        DivideNumbers(BinaryNode node) {
+            super(node.site, node.operator, node.left, node.right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            try {
+                return evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return e.getResult();
+            }
+        }
+
+        @Override
+        public double evalDouble(Environment environment) throws UnexpectedResultException {
+            double a;
+            try {
+                a = left.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(e.getResult(), right.eval(environment)));
+            }
+            double b;
+            try {
+                b = right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(a, e.getResult()));
+            }
+            if (b == 0.0) {
+                // a zero divisor is still a number: report it without giving up the specialization
+                return expectDouble(generic(operator, a, b));
+            }
+            return a / b;
+        }
+    }
+
+    private static final class GreaterNumbers extends BinaryNode {
+        GreaterNumbers(BinaryNode node) {
+            super(node.site, node.operator, node.left, node.right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalBoolean(environment);
+        }
+
+        @Override
+        public boolean evalBoolean(Environment environment) {
+            double a;
+            try {
+                a = left.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return Interpreter.isTruthy(generalize(e.getResult(), right.eval(environment)));
+            }
+            double b;
+            try {
+                b = right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return Interpreter.isTruthy(generalize(a, e.getResult()));
+            }
+            return a > b;
+        }
+    }
+
+    private static final class GreaterEqualNumbers extends BinaryNode {
+        GreaterEqualNumbers(BinaryNode node) {
+            super(node.site, node.operator, node.left, node.right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalBoolean(environment);
+        }
+
+        @Override
+        public boolean evalBoolean(Environment environment) {
+            double a;
+            try {
+                a = left.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return Interpreter.isTruthy(generalize(e.getResult(), right.eval(environment)));
+            }
+            double b;
+            try {
+                b = right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return Interpreter.isTruthy(generalize(a, e.getResult()));
+            }
+            return a >= b;
+        }
+    }
+
+    private static final class LessNumbers extends BinaryNode {
+        LessNumbers(BinaryNode node) {
+            super(node.site, node.operator, node.left, node.right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalBoolean(environment);
+        }
+
+        @Override
+        public boolean evalBoolean(Environment environment) {
+            double a;
+            try {
+                a = left.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return Interpreter.isTruthy(generalize(e.getResult(), right.eval(environment)));
+            }
+            double b;
+            try {
+                b = right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return Interpreter.isTruthy(generalize(a, e.getResult()));
+            }
+            return a < b;
+        }
+    }
+
+    private static final class LessEqualNumbers extends BinaryNode {
+        LessEqualNumbers(BinaryNode node) {
+            super(node.site, node.operator, node.left, node.right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return evalBoolean(environment);
+        }
+
+        @Override
+        public boolean evalBoolean(Environment environment) {
+            double a;
+            try {
+                a = left.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return Interpreter.isTruthy(generalize(e.getResult(), right.eval(environment)));
+            }
+            double b;
+            try {
+                b = right.evalDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return Interpreter.isTruthy(generalize(a, e.getResult()));
+            }
+            return a <= b;
+        }
+    }
+
+    private static final class ConcatStrings extends BinaryNode {
+        ConcatStrings(BinaryNode node) {
+            super(node.site, node.operator, node.left, node.right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object l = left.eval(environment);
+            Object r = right.eval(environment);
+            if (l instanceof CharSequence && r instanceof CharSequence) {
+                return LoxString.concat(l, r);
+            }
+            return generalize(l, r);
+        }
+    }
+
+    /**
+     * Full semantics of the arithmetic and comparison operators, the same as
+     * {@link Interpreter#visitBinaryExpr}.
+     */
+    static Object generic(Token operator, Object l, Object r) {
+        switch (operator.getTokenType()) {
+            case PLUS -> {
+                if (l instanceof Double leftDouble && r instanceof Double rightDouble) {
+                    return leftDouble + rightDouble;
+                }
+                if (l instanceof CharSequence || r instanceof CharSequence) {
+                    return LoxString.concat(l, r);
+                }
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings or at least one strings.");
+            }
+            case MINUS -> {
+                Interpreter.checkNumberOperand(operator, l, r);
+                return (double) l - (double) r;
+            }
+            case STAR -> {
+                Interpreter.checkNumberOperand(operator, l, r);
+                return (double) l * (double) r;
+            }
+            case SLASH -> {
+                Interpreter.checkNumberOperand(operator, l, r);
+                Interpreter.checkDivideZero(operator, r);
+                return (double) l / (double) r;
+            }
+            case GREATER -> {
+                Interpreter.checkNumberOperand(operator, l, r);
+                return (double) l > (double) r;
+            }
+            case GREATER_EQUAL -> {
+                Interpreter.checkNumberOperand(operator, l, r);
+                return (double) l >= (double) r;
+            }
+            case LESS -> {
+                Interpreter.checkNumberOperand(operator, l, r);
+                return (double) l < (double) r;
+            }
+            case LESS_EQUAL -> {
+                Interpreter.checkNumberOperand(operator, l, r);
+                return (double) l <= (double) r;
+            }
+        }
+        throw new IllegalArgumentException("Not a specializable operator: " + operator.getLexeme());
+    }
+
+    private static final class UninitializedGet implements ExprNode {
+        private final Site site;
+        private final ExprNode object;
+        private final Token name;
+        private final InlineCache cache;
+
+        UninitializedGet(Site site, ExprNode object, Token name, InlineCache cache) {
+            this.site = site;
+            this.object = object;
+            this.name = name;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object value = object.eval(environment);
+            site.node = value instanceof LoxInstance
+                    ? new InstanceGet(site, object, name, cache) : new GenericGet(object, name, cache);
+            return GenericGet.get(value, name, cache);
+        }
+    }
+
+    private static final class InstanceGet implements ExprNode {
+        private final Site site;
+        private final ExprNode object;
+        private final Token name;
+        private final InlineCache cache;
+
+        InstanceGet(Site site, ExprNode object, Token name, InlineCache cache) {
+            this.site = site;
+            this.object = object;
+            this.name = name;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object value = object.eval(environment);
+            if (value instanceof LoxInstance instance) {
+                return cache.get(instance, name);
+            }
+            site.node = new GenericGet(object, name, cache);
+            return GenericGet.get(value, name, cache);
+        }
+    }
+
+    private static final class GenericGet implements ExprNode {
+        private final ExprNode object;
+        private final Token name;
+        private final InlineCache cache;
+
+        GenericGet(ExprNode object, Token name, InlineCache cache) {
+            this.object = object;
+            this.name = name;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return get(object.eval(environment), name, cache);
+        }
+
+        static Object get(Object object, Token name, InlineCache cache) {
+            if (object instanceof LoxInstance loxInstance) {
+                return cache.get(loxInstance, name);
+            }
+            throw new RuntimeError(name, "Only instances have properties.");
+        }
+    }
+
+    private static final class UninitializedSet implements ExprNode {
+        private final Site site;
+        private final ExprNode object;
+        private final Token name;
+        private final ExprNode value;
+        private final InlineCache cache;
+
+        UninitializedSet(Site site, ExprNode object, Token name, ExprNode value, InlineCache cache) {
+            this.site = site;
+            this.object = object;
+            this.name = name;
+            this.value = value;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object target = object.eval(environment);
+            site.node = target instanceof LoxInstance
+                    ? new InstanceSet(site, object, name, value, cache) : new GenericSet(object, name, value, cache);
+            return GenericSet.set(target, name, value, cache, environment);
+        }
+    }
+
+    private static final class InstanceSet implements ExprNode {
+        private final Site site;
+        private final ExprNode object;
+        private final Token name;
+        private final ExprNode value;
+        private final InlineCache cache;
+
+        InstanceSet(Site site, ExprNode object, Token name, ExprNode value, InlineCache cache) {
+            this.site = site;
+            this.object = object;
+            this.name = name;
+            this.value = value;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object target = object.eval(environment);
+            if (target instanceof LoxInstance instance) {
+                Object result = value.eval(environment);
+                cache.set(instance, name, result);
+                return result;
+            }
+            site.node = new GenericSet(object, name, value, cache);
+            return GenericSet.set(target, name, value, cache, environment);
+        }
+    }
+
+    private static final class GenericSet implements ExprNode {
+        private final ExprNode object;
+        private final Token name;
+        private final ExprNode value;
+        private final InlineCache cache;
+
+        GenericSet(ExprNode object, Token name, ExprNode value, InlineCache cache) {
+            this.object = object;
+            this.name = name;
+            this.value = value;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return set(object.eval(environment), name, value, cache, environment);
+        }
+
+        static Object set(Object target, Token name, ExprNode value, InlineCache cache, Environment environment) {
+            if (target instanceof LoxInstance loxInstance) {
+                Object result = value.eval(environment);
+                cache.set(loxInstance, name, result);
+                return result;
+            }
+            throw new RuntimeError(name, "Only instances have properties.");
+        }
+    }
+
+    private abstract static class CallNode implements ExprNode {
+        final Site site;
+        final Interpreter interpreter;
+        final Token paren;
+        final ExprNode callee;
+        final ExprNode[] arguments;
+
+        CallNode(Site site, Interpreter interpreter, Token paren, ExprNode callee, ExprNode[] arguments) {
+            this.site = site;
+            this.interpreter = interpreter;
+            this.paren = paren;
+            this.callee = callee;
+            this.arguments = arguments;
+        }
+
+        CallNode(CallNode node) {
+            this(node.site, node.interpreter, node.paren, node.callee, node.arguments);
+        }
+
+        final Object[] evaluateArguments(Environment environment) {
+            return SpecializingNodes.evaluateArguments(arguments, environment);
+        }
+
+        final Object generic(Object function, Object[] values) {
+            return Interpreter.callable(function, values.length, paren).call(interpreter, values);
+        }
+
+        final Object generalize(Object function, Object[] values) {
+            site.node = new GenericCall(this);
+            return generic(function, values);
+        }
+    }
+
+    private static final class UninitializedCall extends CallNode {
+        UninitializedCall(Site site, Interpreter interpreter, Token paren, ExprNode callee, ExprNode[] arguments) {
+            super(site, interpreter, paren, callee, arguments);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object function = callee.eval(environment);
+            Object[] values = evaluateArguments(environment);
+            if (function instanceof LoxFunction loxFunction && loxFunction.arity() == arguments.length) {
+                site.node = new FunctionCall(this);
+            } else if (function instanceof LoxClass loxClass && loxClass.arity() == arguments.length) {
+                site.node = new ClassCall(this);
+            } else {
+                site.node = new GenericCall(this);
+            }
+            return generic(function, values);
+        }
+    }
+
+    private static final class FunctionCall extends CallNode {
+        FunctionCall(CallNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object function = callee.eval(environment);
+            if (function instanceof LoxFunction loxFunction && loxFunction.arity() == arguments.length) {
+                return call(loxFunction, interpreter, arguments, environment);
+            }
+            return generalize(function, evaluateArguments(environment));
+        }
+    }
+
+    private static final class ClassCall extends CallNode {
+        ClassCall(CallNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object function = callee.eval(environment);
+            if (function instanceof LoxClass loxClass && loxClass.arity() == arguments.length) {
+                return call(loxClass, interpreter, arguments, environment);
+            }
+            return generalize(function, evaluateArguments(environment));
+        }
+    }
+
+    private static final class GenericCall extends CallNode {
+        GenericCall(CallNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            Object function = callee.eval(environment);
+            return generic(function, evaluateArguments(environment));
+        }
+    }
+
+    static Object[] evaluateArguments(ExprNode[] arguments, Environment environment) {
+        if (arguments.length == 0) {
+            return LoxCallable.NO_ARGUMENTS;
+        }
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            values[i] = arguments[i].eval(environment);
+        }
+        return values;
+    }
+
+    /**
+     * Evaluates the arguments straight into the fixed-arity entry point of a callable already
+     * checked to take that many.
+     */
+    private static Object call(LoxCallable callable, Interpreter interpreter, ExprNode[] arguments, Environment environment) {
+        return switch (arguments.length) {
+            case 0 -> callable.call0(interpreter);
+            case 1 -> callable.call1(interpreter, arguments[0].eval(environment));
+            case 2 -> callable.call2(interpreter, arguments[0].eval(environment), arguments[1].eval(environment));
+            case 3 -> callable.call3(interpreter, arguments[0].eval(environment), arguments[1].eval(environment),
+                    arguments[2].eval(environment));
+            case 4 -> callable.call4(interpreter, arguments[0].eval(environment), arguments[1].eval(environment),
+                    arguments[2].eval(environment), arguments[3].eval(environment));
+            default -> callable.call(interpreter, evaluateArguments(arguments, environment));
+        };
+    }
+
+    private static Object invoke(LoxFunction method, Interpreter interpreter, LoxInstance receiver, ExprNode[] arguments,
+                                 Environment environment) {
+        return switch (arguments.length) {
+            case 0 -> method.invoke0(interpreter, receiver);
+            case 1 -> method.invoke1(interpreter, receiver, arguments[0].eval(environment));
+            case 2 -> method.invoke2(interpreter, receiver, arguments[0].eval(environment), arguments[1].eval(environment));
+            case 3 -> method.invoke3(interpreter, receiver, arguments[0].eval(environment), arguments[1].eval(environment),
+                    arguments[2].eval(environment));
+            case 4 -> method.invoke4(interpreter, receiver, arguments[0].eval(environment), arguments[1].eval(environment),
+                    arguments[2].eval(environment), arguments[3].eval(environment));
+            default -> method.invoke(interpreter, receiver, evaluateArguments(arguments, environment));
+        };
+    }
+
+    /**
+     * Method call: the property is read through the inline cache and a method is called with the
+     * receiver directly, without allocating a bound copy of it.
+     */
+    private static final class Invoke implements ExprNode {
+        private final Interpreter interpreter;
+        private final Token paren;
+        private final ExprNode object;
+        private final Token name;
+        private final ExprNode[] arguments;
+        private final InlineCache cache;
+
+        Invoke(Interpreter interpreter, Token paren, ExprNode object, Token name, ExprNode[] arguments, InlineCache cache) {
+            this.interpreter = interpreter;
+            this.paren = paren;
+            this.object = object;
+            this.name = name;
+            this.arguments = arguments;
+            this.cache = cache;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            if (!(object.eval(environment) instanceof LoxInstance receiver)) {
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+            Object target = cache.lookup(receiver, name);
+            if (target instanceof LoxFunction method && method.isUnbound() && method.arity() == arguments.length) {
+                return invoke(method, interpreter, receiver, arguments, environment);
+            }
+            return interpreter.invoke(receiver, target, evaluateArguments(arguments, environment), paren);
+        }
+    }
+}
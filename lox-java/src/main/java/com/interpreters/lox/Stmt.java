@@ -68,6 +68,8 @@ public abstract class Stmt {
 	public static class Var extends Stmt {
 		private final Token name;
 		private final Expr initializer;
+		private int slot = -1;
+		private boolean captured;
 
 		public Var(Token name, Expr initializer) {
 			this.name = name;
@@ -87,10 +89,29 @@ public abstract class Stmt {
 			return initializer;
 		}
 
+		public int getSlot() {
+			return slot;
+		}
+
+		public void setSlot(int slot) {
+			this.slot = slot;
+		}
+
+		public boolean getCaptured() {
+			return captured;
+		}
+
+		public void setCaptured(boolean captured) {
+			this.captured = captured;
+		}
+
 	}
 
 	public static class Block extends Stmt {
 		private final List<Stmt> statements;
+		private int frameSize;
+		private boolean scoped;
+		private boolean closures;
 
 		public Block(List<Stmt> statements) {
 			this.statements = statements;
@@ -105,6 +126,30 @@ public abstract class Stmt {
 			return statements;
 		}
 
+		public int getFrameSize() {
+			return frameSize;
+		}
+
+		public void setFrameSize(int frameSize) {
+			this.frameSize = frameSize;
+		}
+
+		public boolean getScoped() {
+			return scoped;
+		}
+
+		public void setScoped(boolean scoped) {
+			this.scoped = scoped;
+		}
+
+		public boolean getClosures() {
+			return closures;
+		}
+
+		public void setClosures(boolean closures) {
+			this.closures = closures;
+		}
+
 	}
 
 	public static class If extends Stmt {
@@ -140,6 +185,10 @@ public abstract class Stmt {
 	public static class While extends Stmt {
 		private final Expr condition;
 		private final Stmt body;
+		private int frameSize;
+		private Profile profile;
+		private JitCompiler.CompiledBody compiledLoop;
+		private boolean rejected;
 
 		public While(Expr condition, Stmt body) {
 			this.condition = condition;
@@ -159,6 +208,38 @@ public abstract class Stmt {
 			return body;
 		}
 
+		public int getFrameSize() {
+			return frameSize;
+		}
+
+		public void setFrameSize(int frameSize) {
+			this.frameSize = frameSize;
+		}
+
+		public Profile getProfile() {
+			return profile;
+		}
+
+		public void setProfile(Profile profile) {
+			this.profile = profile;
+		}
+
+		public JitCompiler.CompiledBody getCompiledLoop() {
+			return compiledLoop;
+		}
+
+		public void setCompiledLoop(JitCompiler.CompiledBody compiledLoop) {
+			this.compiledLoop = compiledLoop;
+		}
+
+		public boolean getRejected() {
+			return rejected;
+		}
+
+		public void setRejected(boolean rejected) {
+			this.rejected = rejected;
+		}
+
 	}
 
 	public static class Break extends Stmt {
@@ -182,6 +263,8 @@ public abstract class Stmt {
 	public static class Function extends Stmt {
 		private final Token name;
 		private final Expr.Function function;
+		private int slot = -1;
+		private boolean captured;
 
 		public Function(Token name, Expr.Function function) {
 			this.name = name;
@@ -201,11 +284,28 @@ public abstract class Stmt {
 			return function;
 		}
 
+		public int getSlot() {
+			return slot;
+		}
+
+		public void setSlot(int slot) {
+			this.slot = slot;
+		}
+
+		public boolean getCaptured() {
+			return captured;
+		}
+
+		public void setCaptured(boolean captured) {
+			this.captured = captured;
+		}
+
 	}
 
 	public static class Return extends Stmt {
 		private final Token keyword;
 		private final Expr value;
+		private boolean tailCall;
 
 		public Return(Token keyword, Expr value) {
 			this.keyword = keyword;
@@ -225,6 +325,14 @@ public abstract class Stmt {
 			return value;
 		}
 
+		public boolean getTailCall() {
+			return tailCall;
+		}
+
+		public void setTailCall(boolean tailCall) {
+			this.tailCall = tailCall;
+		}
+
 	}
 
 	public static class Class extends Stmt {
@@ -232,6 +340,9 @@ public abstract class Stmt {
 		private final Expr.Variable superclass;
 		private final List<Stmt.Function> methods;
 		private final List<Stmt.Function> classMethods;
+		private int slot = -1;
+		private List<String> superMethods = List.of();
+		private boolean captured;
 
 		public Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Stmt.Function> classMethods) {
 			this.name = name;
@@ -261,6 +372,30 @@ public abstract class Stmt {
 			return classMethods;
 		}
 
+		public int getSlot() {
+			return slot;
+		}
+
+		public void setSlot(int slot) {
+			this.slot = slot;
+		}
+
+		public List<String> getSuperMethods() {
+			return superMethods;
+		}
+
+		public void setSuperMethods(List<String> superMethods) {
+			this.superMethods = superMethods;
+		}
+
+		public boolean getCaptured() {
+			return captured;
+		}
+
+		public void setCaptured(boolean captured) {
+			this.captured = captured;
+		}
+
 	}
 
 }
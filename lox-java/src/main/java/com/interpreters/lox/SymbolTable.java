@@ -0,0 +1,71 @@
+package com.interpreters.lox;
+
+/**
+ * Global table of the names programs use. The scanner interns identifiers and keywords through it,
+ * so each name exists as a single {@link String} with its hash already computed, shared by all its
+ * tokens. The maps keyed by names (globals, methods, shapes, fields, resolver scopes) then find
+ * their keys by identity, and a large tree holds one copy of each name. Other lexemes, like
+ * comments and literals, are not interned: the table never shrinks.
+ */
+final class SymbolTable {
+    private static String[] symbols = new String[1024];
+    private static int size = 0;
+
+    private SymbolTable() {
+    }
+
+    /**
+     * @return the symbol for the characters of the source between start and end, looked up
+     * without copying them
+     */
+    static synchronized String intern(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        int mask = symbols.length - 1;
+        int index = spread(hash) & mask;
+        for (String symbol = symbols[index]; null != symbol; symbol = symbols[index]) {
+            if (symbol.length() == end - start && matches(symbol, source, start)) {
+                return symbol;
+            }
+            index = (index + 1) & mask;
+        }
+        String symbol = source.subSequence(start, end).toString();
+        // caches the hash in the string
+        symbol.hashCode();
+        symbols[index] = symbol;
+        if (++size * 2 > symbols.length) {
+            grow();
+        }
+        return symbol;
+    }
+
+    private static boolean matches(String symbol, CharSequence source, int start) {
+        for (int i = 0; i < symbol.length(); i++) {
+            if (symbol.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void grow() {
+        String[] old = symbols;
+        symbols = new String[old.length * 2];
+        int mask = symbols.length - 1;
+        for (String symbol : old) {
+            if (null != symbol) {
+                int index = spread(symbol.hashCode()) & mask;
+                while (null != symbols[index]) {
+                    index = (index + 1) & mask;
+                }
+                symbols[index] = symbol;
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
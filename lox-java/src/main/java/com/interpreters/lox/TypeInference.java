@@ -0,0 +1,402 @@
+package com.interpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Flow-sensitive type inference over the resolved tree. It follows the type of every local through
+ * the body of its function, joining the paths of branches and iterating loops to a fixed point,
+ * and marks the operators whose operands are always numbers as {@code numeric}, so the engines
+ * skip the operand checks. A failed operation throws, so an arithmetic operator always yields a
+ * number and a comparison a boolean.
+ * <p>
+ * Only locals of frames no closure can reach are followed: a closure could assign a captured
+ * local during any call. Globals, variables of enclosing functions and the locals of a function
+ * that declares closures are of any type.
+ */
+public class TypeInference implements Expr.Visitor<TypeInference.Type>, Stmt.Visitor<Void> {
+    enum Type {
+        NUMBER, BOOLEAN, STRING, ANY;
+
+        private static Type join(Type a, Type b) {
+            // a slot without a type is not in scope, its next use is a declaration
+            if (null == a) {
+                return b;
+            }
+            return null == b || a == b ? a : ANY;
+        }
+    }
+
+    // types of the slots of the current function's frames, innermost last; null for a frame not followed
+    private List<Type[]> frames = new ArrayList<>();
+    // false after a return or a break, until control flow merges
+    private boolean reachable = true;
+    // states at the breaks of the innermost loop
+    private List<List<Type[]>> breaks = null;
+
+    public void infer(List<Stmt> stmts) {
+        stmts.forEach(this::infer);
+    }
+
+    @Override
+    public Type visitAssignmentExpr(Expr.Assignment expr) {
+        Type value = infer(expr.getValue());
+        Type[] frame = frameOf(expr.getDepth());
+        if (null != frame) {
+            frame[expr.getSlot()] = value;
+        }
+        // an assignment yields nil
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitTernaryExpr(Expr.Ternary expr) {
+        infer(expr.getExpr());
+        List<Type[]> before = snapshot();
+        Type thenType = infer(expr.getThenBranch());
+        List<Type[]> afterThen = snapshot();
+        restore(before);
+        Type elseType = infer(expr.getElseBranch());
+        merge(afterThen);
+        return Type.join(thenType, elseType);
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        Type left = infer(expr.getLeft());
+        Type right = infer(expr.getRight());
+        boolean numbers = left == Type.NUMBER && right == Type.NUMBER;
+        switch (expr.getOperator().getTokenType()) {
+            case PLUS -> {
+                expr.setNumeric(numbers);
+                if (numbers) {
+                    return Type.NUMBER;
+                }
+                return left == Type.STRING || right == Type.STRING ? Type.STRING : Type.ANY;
+            }
+            case MINUS, STAR, SLASH -> {
+                expr.setNumeric(numbers);
+                return Type.NUMBER;
+            }
+            case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> {
+                expr.setNumeric(numbers);
+                return Type.BOOLEAN;
+            }
+            case EQUAL_EQUAL, BANG_EQUAL -> {
+                return Type.BOOLEAN;
+            }
+            default -> {
+                return Type.ANY;
+            }
+        }
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.getExpression());
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.getValue();
+        if (value instanceof Double) {
+            return Type.NUMBER;
+        }
+        if (value instanceof Boolean) {
+            return Type.BOOLEAN;
+        }
+        return value instanceof String ? Type.STRING : Type.ANY;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        Type right = infer(expr.getRight());
+        if (expr.getOperator().getTokenType() == TokenType.BANG) {
+            return Type.BOOLEAN;
+        }
+        expr.setNumeric(right == Type.NUMBER);
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+        Type[] frame = frameOf(expr.getDepth());
+        Type type = null == frame ? null : frame[expr.getSlot()];
+        return null == type ? Type.ANY : type;
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        Type left = infer(expr.getLeft());
+        // the right operand may not run
+        List<Type[]> shortCircuit = snapshot();
+        Type right = infer(expr.getRight());
+        merge(shortCircuit);
+        return Type.join(left, right);
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+        infer(expr.getCallee());
+        expr.getArguments().forEach(this::infer);
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitInlineExpr(Expr.Inline expr) {
+        Expr.Call call = expr.getCall();
+        int slot = expr.getBase();
+        if (call.getCallee() instanceof Expr.Get get) {
+            infer(get.getObject());
+            declare(slot++, Type.ANY);
+        } else {
+            infer(call.getCallee());
+        }
+        // the body only runs with the arguments in the temporaries
+        for (Expr argument : call.getArguments()) {
+            declare(slot++, infer(argument));
+        }
+        infer(expr.getBody());
+        // or the call was made
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitFunctionExpr(Expr.Function expr) {
+        List<Type[]> enclosingFrames = frames;
+        boolean enclosingReachable = reachable;
+        List<List<Type[]>> enclosingBreaks = breaks;
+        frames = new ArrayList<>();
+        reachable = true;
+        breaks = null;
+        Type[] frame = expr.getClosures() ? null : new Type[expr.getFrameSize()];
+        if (null != frame) {
+            // the receiver and the arguments
+            Arrays.fill(frame, 0, expr.getFirstParam() + expr.getParams().size(), Type.ANY);
+        }
+        frames.add(frame);
+        expr.getBody().forEach(this::infer);
+        frames = enclosingFrames;
+        reachable = enclosingReachable;
+        breaks = enclosingBreaks;
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get expr) {
+        infer(expr.getObject());
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set expr) {
+        infer(expr.getObject());
+        infer(expr.getValue());
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr) {
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr) {
+        return Type.ANY;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        infer(stmt.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        infer(stmt.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Type type = null == stmt.getInitializer() ? Type.ANY : infer(stmt.getInitializer());
+        declare(stmt.getSlot(), type);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (null == stmt.getStatements()) {
+            return null;
+        }
+        if (!stmt.getScoped()) {
+            stmt.getStatements().forEach(this::infer);
+            return null;
+        }
+        frames.add(stmt.getClosures() ? null : new Type[stmt.getFrameSize()]);
+        stmt.getStatements().forEach(this::infer);
+        frames.remove(frames.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        infer(stmt.getCondition());
+        List<Type[]> before = snapshot();
+        boolean reachableBefore = reachable;
+        infer(stmt.getThenStatement());
+        List<Type[]> afterThen = snapshot();
+        boolean thenReachable = reachable;
+        restore(before);
+        reachable = reachableBefore;
+        if (null != stmt.getElseStatement()) {
+            infer(stmt.getElseStatement());
+        }
+        join(afterThen, thenReachable);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        if (stmt.getFrameSize() == 0) {
+            loop(stmt);
+            return null;
+        }
+        // the frame of a top-level loop, followed unless its body declares closures
+        boolean closures = !(stmt.getBody() instanceof Stmt.Block block) || block.getClosures();
+        frames.add(closures ? null : new Type[stmt.getFrameSize()]);
+        loop(stmt);
+        frames.remove(frames.size() - 1);
+        return null;
+    }
+
+    private void loop(Stmt.While stmt) {
+        List<List<Type[]>> enclosingBreaks = breaks;
+        boolean reachableBefore = reachable;
+        while (true) {
+            breaks = new ArrayList<>();
+            reachable = reachableBefore;
+            List<Type[]> head = snapshot();
+            infer(stmt.getCondition());
+            List<Type[]> exit = snapshot();
+            infer(stmt.getBody());
+            // the back edge
+            join(head, true);
+            if (equal(head, frames)) {
+                restore(exit);
+                reachable = reachableBefore;
+                breaks.forEach(state -> join(state, true));
+                break;
+            }
+        }
+        breaks = enclosingBreaks;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (reachable) {
+            breaks.add(snapshot());
+        }
+        reachable = false;
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.getSlot(), Type.ANY);
+        infer(stmt.getFunction());
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (null != stmt.getValue()) {
+            infer(stmt.getValue());
+        }
+        reachable = false;
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.getSlot(), Type.ANY);
+        stmt.getMethods().forEach(method -> infer(method.getFunction()));
+        stmt.getClassMethods().forEach(method -> infer(method.getFunction()));
+        return null;
+    }
+
+    private Type infer(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void infer(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    /**
+     * @return the types of the frame the variable lives in, or null if it is not followed
+     */
+    private Type[] frameOf(int depth) {
+        if (depth < 0 || depth >= frames.size()) {
+            return null;
+        }
+        return frames.get(frames.size() - 1 - depth);
+    }
+
+    private void declare(int slot, Type type) {
+        Type[] frame = frameOf(0);
+        if (slot >= 0 && null != frame) {
+            frame[slot] = type;
+        }
+    }
+
+    private List<Type[]> snapshot() {
+        List<Type[]> copy = new ArrayList<>(frames.size());
+        frames.forEach(frame -> copy.add(null == frame ? null : frame.clone()));
+        return copy;
+    }
+
+    private void restore(List<Type[]> state) {
+        frames = state;
+    }
+
+    /**
+     * Joins a path that reaches the current point, with its state, into the current state.
+     */
+    private void join(List<Type[]> state, boolean stateReachable) {
+        if (!stateReachable) {
+            return;
+        }
+        if (!reachable) {
+            frames = state;
+            reachable = true;
+            return;
+        }
+        for (int i = 0; i < frames.size(); i++) {
+            Type[] frame = frames.get(i);
+            Type[] other = state.get(i);
+            if (null != frame) {
+                for (int slot = 0; slot < frame.length; slot++) {
+                    frame[slot] = Type.join(frame[slot], other[slot]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Joins the state before an operand that may not run into the state after it.
+     */
+    private void merge(List<Type[]> state) {
+        join(state, true);
+    }
+
+    private static boolean equal(List<Type[]> a, List<Type[]> b) {
+        for (int i = 0; i < a.size(); i++) {
+            if (!Arrays.equals(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,18 @@
+package com.interpreters.lox;
+
+/**
+ * Thrown by a primitive evaluation path, such as {@link ClosureCompiler.ExprNode#evalDouble}, when
+ * the node produced a value of another type. Carries that value so the caller can continue with it.
+ */
+public class UnexpectedResultException extends Exception {
+    private final Object result;
+
+    public UnexpectedResultException(Object result) {
+        super(null, null, false, false);
+        this.result = result;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+}
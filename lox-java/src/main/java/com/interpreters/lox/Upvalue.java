@@ -0,0 +1,22 @@
+package com.interpreters.lox;
+
+/**
+ * A local variable captured by a closure. The frame declaring the variable keeps the upvalue in
+ * the variable's slot and every closure capturing it keeps the same upvalue, so all of them see
+ * its assignments. A local no closure captures is kept in its slot directly.
+ */
+public class Upvalue {
+    private Object value;
+
+    public Upvalue(Object value) {
+        this.value = value;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public void setValue(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,572 @@
+package com.interpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stack based virtual machine executing the bytecode produced by {@link BytecodeCompiler}.
+ * <p>
+ * Locals live in one shared value stack, closures capture variables through upvalues that are
+ * closed (moved off the stack) when the variable goes out of scope, and classes copy their
+ * superclass' methods down when they inherit, so method lookup is a single hash lookup.
+ * Globals are {@link GlobalCell}s referenced directly from the constant pool.
+ */
+public class VM {
+    private static final int FRAMES_MAX = 4096;
+    private static final int STACK_MAX = FRAMES_MAX * 256;
+
+    private final Object[] stack = new Object[STACK_MAX];
+    private int sp = 0;
+    private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+    private int frameCount = 0;
+    // open upvalues, sorted by stack slot from the top of the stack down
+    private ObjUpvalue openUpvalues = null;
+    private final Map<String, GlobalCell> globals = new HashMap<>();
+
+    private static class CallFrame {
+        private ObjClosure closure;
+        private int ip;
+        // stack index of slot 0 of the frame
+        private int base;
+    }
+
+    public VM() {
+        for (int i = 0; i < FRAMES_MAX; i++) {
+            frames[i] = new CallFrame();
+        }
+        globalCell("clock").setValue(new ObjNative("clock", 0) {
+            @Override
+            Object call(Object[] stack, int args) {
+                return System.currentTimeMillis() / 1000.0;
+            }
+        });
+    }
+
+    public GlobalCell globalCell(String name) {
+        return globals.computeIfAbsent(name, GlobalCell::new);
+    }
+
+    public void interpret(ObjFunction script) {
+        ObjClosure closure = new ObjClosure(script);
+        push(closure);
+        try {
+            call(closure, 0, 0);
+            run();
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        } finally {
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    private Object run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.getCode();
+        Object[] constants = frame.closure.function.chunk.getConstants();
+        int ip = frame.ip;
+        int base = frame.base;
+        Object[] stack = this.stack;
+        for (; ; ) {
+            byte instruction = code[ip++];
+            switch (instruction) {
+                case OpCode.CONSTANT -> {
+                    stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                }
+                case OpCode.NIL -> stack[sp++] = null;
+                case OpCode.TRUE -> stack[sp++] = Boolean.TRUE;
+                case OpCode.FALSE -> stack[sp++] = Boolean.FALSE;
+                case OpCode.POP -> sp--;
+                case OpCode.GET_LOCAL -> stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                case OpCode.GET_LOCAL_CHECKED -> {
+                    Object value = stack[base + (code[ip++] & 0xff)];
+                    if (Environment.uninitialized == value) {
+                        throw error(frame, ip, "Variable must be initialized before use.");
+                    }
+                    stack[sp++] = value;
+                }
+                case OpCode.SET_LOCAL -> stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                case OpCode.GET_GLOBAL -> {
+                    GlobalCell cell = (GlobalCell) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Object value = cell.getValue();
+                    if (GlobalCell.undefined == value) {
+                        throw error(frame, ip, "Undefined variable '" + cell.getName() + "'.");
+                    }
+                    if (Environment.uninitialized == value) {
+                        throw error(frame, ip, "Variable must be initialized before use.");
+                    }
+                    stack[sp++] = value;
+                }
+                case OpCode.SET_GLOBAL -> {
+                    GlobalCell cell = (GlobalCell) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!cell.isDefined()) {
+                        throw error(frame, ip, "Undefined variable '" + cell.getName() + "'.");
+                    }
+                    cell.setValue(stack[sp - 1]);
+                }
+                case OpCode.DEFINE_GLOBAL -> {
+                    GlobalCell cell = (GlobalCell) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    cell.setValue(stack[--sp]);
+                }
+                case OpCode.GET_UPVALUE -> {
+                    Object value = frame.closure.upvalues[code[ip++] & 0xff].get();
+                    if (Environment.uninitialized == value) {
+                        throw error(frame, ip, "Variable must be initialized before use.");
+                    }
+                    stack[sp++] = value;
+                }
+                case OpCode.SET_UPVALUE -> frame.closure.upvalues[code[ip++] & 0xff].set(stack[sp - 1]);
+                case OpCode.GET_PROPERTY -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!(stack[sp - 1] instanceof ObjInstance instance)) {
+                        throw error(frame, ip, "Only instances have properties.");
+                    }
+                    Object value = instance.fields.get(name);
+                    if (value == null && !instance.fields.containsKey(name)) {
+                        ObjClosure method = instance.klass.methods.get(name);
+                        if (method == null) {
+                            throw error(frame, ip, "Undefined property '" + name + "'.");
+                        }
+                        value = new ObjBoundMethod(instance, method);
+                    }
+                    stack[sp - 1] = value;
+                }
+                case OpCode.SET_PROPERTY -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!(stack[sp - 2] instanceof ObjInstance instance)) {
+                        throw error(frame, ip, "Only instances have properties.");
+                    }
+                    Object value = stack[--sp];
+                    instance.fields.put(name, value);
+                    stack[sp - 1] = value;
+                }
+                case OpCode.GET_SUPER -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ObjClass superclass = (ObjClass) stack[--sp];
+                    ObjClosure method = superclass.methods.get(name);
+                    if (method == null) {
+                        throw error(frame, ip, "Undefined property '" + name + "'.");
+                    }
+                    stack[sp - 1] = new ObjBoundMethod((ObjInstance) stack[sp - 1], method);
+                }
+                case OpCode.EQUAL -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], right);
+                }
+                case OpCode.NOT_EQUAL -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], right);
+                }
+                case OpCode.GREATER, OpCode.GREATER_EQUAL, OpCode.LESS, OpCode.LESS_EQUAL,
+                        OpCode.SUBTRACT, OpCode.MULTIPLY, OpCode.DIVIDE -> {
+                    if (!(stack[sp - 2] instanceof Double left) || !(stack[sp - 1] instanceof Double right)) {
+                        throw error(frame, ip, "Operands must be numbers.");
+                    }
+                    sp--;
+                    stack[sp - 1] = switch (instruction) {
+                        case OpCode.GREATER -> left > right;
+                        case OpCode.GREATER_EQUAL -> left >= right;
+                        case OpCode.LESS -> left < right;
+                        case OpCode.LESS_EQUAL -> left <= right;
+                        case OpCode.SUBTRACT -> left - right;
+                        case OpCode.MULTIPLY -> left * right;
+                        default -> {
+                            // challenge 7.3
+                            if (right.compareTo(0.0) == 0) {
+                                throw error(frame, ip, "Cannot divide by zero");
+                            }
+                            yield left / right;
+                        }
+                    };
+                }
+                case OpCode.ADD -> {
+                    Object left = stack[sp - 2];
+                    Object right = stack[sp - 1];
+                    if (left instanceof Double leftDouble && right instanceof Double rightDouble) {
+                        stack[sp - 2] = leftDouble + rightDouble;
+                    } else if (left instanceof CharSequence || right instanceof CharSequence) {
+                        stack[sp - 2] = LoxString.concat(left, right);
+                    } else {
+                        throw error(frame, ip, "Operands must be two numbers or two strings or at least one strings.");
+                    }
+                    sp--;
+                }
+                case OpCode.NOT -> stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                case OpCode.NEGATE -> {
+                    if (!(stack[sp - 1] instanceof Double value)) {
+                        throw error(frame, ip, "Operand must be a number.");
+                    }
+                    stack[sp - 1] = -value;
+                }
+                case OpCode.PRINT -> System.out.println(Interpreter.stringify(stack[--sp]));
+                case OpCode.JUMP -> ip += ((code[ip] & 0xff) << 8 | (code[ip + 1] & 0xff)) + 2;
+                case OpCode.JUMP_IF_FALSE -> {
+                    if (Interpreter.isTruthy(stack[sp - 1])) {
+                        ip += 2;
+                    } else {
+                        ip += ((code[ip] & 0xff) << 8 | (code[ip + 1] & 0xff)) + 2;
+                    }
+                }
+                case OpCode.LOOP -> ip -= ((code[ip] & 0xff) << 8 | (code[ip + 1] & 0xff)) - 2;
+                case OpCode.CALL, OpCode.INVOKE, OpCode.TAIL_CALL, OpCode.TAIL_INVOKE -> {
+                    int argCount;
+                    Object callee;
+                    if (instruction == OpCode.CALL || instruction == OpCode.TAIL_CALL) {
+                        argCount = code[ip++] & 0xff;
+                        callee = stack[sp - 1 - argCount];
+                    } else {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        argCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        callee = invokeTarget(frame, ip, name, argCount);
+                    }
+                    frame.ip = ip;
+                    if (instruction >= OpCode.TAIL_CALL) {
+                        ObjClosure target = callee instanceof ObjBoundMethod bound ? bound.method
+                                : callee instanceof ObjClosure closure ? closure : null;
+                        if (null != target && target.function.arity == argCount) {
+                            // replace the returning function by the callee in the same frame
+                            if (callee instanceof ObjBoundMethod bound) {
+                                stack[sp - 1 - argCount] = bound.receiver;
+                            }
+                            closeUpvalues(base);
+                            System.arraycopy(stack, sp - 1 - argCount, stack, base, argCount + 1);
+                            sp = base + argCount + 1;
+                            frame.closure = target;
+                            code = target.function.chunk.getCode();
+                            constants = target.function.chunk.getConstants();
+                            ip = 0;
+                            continue;
+                        }
+                    }
+                    if (!callValue(callee, argCount)) {
+                        // natives and classes without initializer completed without a new frame
+                        continue;
+                    }
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.getCode();
+                    constants = frame.closure.function.chunk.getConstants();
+                    ip = frame.ip;
+                    base = frame.base;
+                }
+                case OpCode.CLOSURE -> {
+                    ObjFunction function = (ObjFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ObjClosure closure = new ObjClosure(function);
+                    for (int i = 0; i < function.upvalueCount; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                }
+                case OpCode.CLOSE_UPVALUE -> {
+                    closeUpvalues(sp - 1);
+                    sp--;
+                }
+                case OpCode.RETURN -> {
+                    Object result = stack[--sp];
+                    closeUpvalues(base);
+                    frameCount--;
+                    if (frameCount == 0) {
+                        sp--;
+                        return result;
+                    }
+                    sp = base;
+                    stack[sp++] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.getCode();
+                    constants = frame.closure.function.chunk.getConstants();
+                    ip = frame.ip;
+                    base = frame.base;
+                }
+                case OpCode.CLASS -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    stack[sp++] = new ObjClass(name);
+                }
+                case OpCode.INHERIT -> {
+                    if (!(stack[sp - 2] instanceof ObjClass superclass)) {
+                        throw error(frame, ip, "Superclass must be a class.");
+                    }
+                    ObjClass subclass = (ObjClass) stack[--sp];
+                    // copy-down inheritance; like LoxClass, class methods fall back to the superclass' methods
+                    subclass.methods.putAll(superclass.methods);
+                    ((ObjInstance) subclass).klass.methods.putAll(superclass.methods);
+                    subclass.initializer = superclass.initializer;
+                }
+                case OpCode.METHOD, OpCode.CLASS_METHOD -> {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ObjClass klass = (ObjClass) stack[sp - 2];
+                    ObjClosure method = (ObjClosure) stack[--sp];
+                    if (instruction == OpCode.METHOD) {
+                        klass.methods.put(name, method);
+                        if (name.equals("init")) {
+                            klass.initializer = method;
+                        }
+                    } else {
+                        ((ObjInstance) klass).klass.methods.put(name, method);
+                    }
+                }
+                default -> throw error(frame, ip, "Unknown opcode " + instruction + ".");
+            }
+        }
+    }
+
+    /**
+     * Receiver of an INVOKE is at the callee slot. A field holding a callable is called like any value,
+     * otherwise the method is called directly with the receiver as slot 0, without binding it.
+     */
+    private Object invokeTarget(CallFrame frame, int ip, String name, int argCount) {
+        Object receiver = stack[sp - 1 - argCount];
+        if (!(receiver instanceof ObjInstance instance)) {
+            throw error(frame, ip, "Only instances have properties.");
+        }
+        Object field = instance.fields.get(name);
+        if (field != null || instance.fields.containsKey(name)) {
+            stack[sp - 1 - argCount] = field;
+            return field;
+        }
+        ObjClosure method = instance.klass.methods.get(name);
+        if (method == null) {
+            throw error(frame, ip, "Undefined property '" + name + "'.");
+        }
+        return method;
+    }
+
+    /**
+     * @return true if a new frame was pushed
+     */
+    private boolean callValue(Object callee, int argCount) {
+        if (callee instanceof ObjClosure closure) {
+            call(closure, argCount, closure.function.arity);
+            return true;
+        }
+        if (callee instanceof ObjBoundMethod bound) {
+            stack[sp - 1 - argCount] = bound.receiver;
+            call(bound.method, argCount, bound.method.function.arity);
+            return true;
+        }
+        if (callee instanceof ObjClass klass) {
+            stack[sp - 1 - argCount] = new ObjInstance(klass);
+            if (klass.initializer != null) {
+                call(klass.initializer, argCount, klass.initializer.function.arity);
+                return true;
+            }
+            checkArity(0, argCount);
+            return false;
+        }
+        if (callee instanceof ObjNative function) {
+            checkArity(function.arity, argCount);
+            Object result = function.call(stack, sp - argCount);
+            sp -= argCount + 1;
+            stack[sp++] = result;
+            return false;
+        }
+        throw error(frames[frameCount - 1], frames[frameCount - 1].ip, "Can only call functions and classes.");
+    }
+
+    private void call(ObjClosure closure, int argCount, int arity) {
+        checkArity(arity, argCount);
+        if (frameCount == FRAMES_MAX) {
+            throw error(frames[frameCount - 1], frames[frameCount - 1].ip, "Stack overflow.");
+        }
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+    }
+
+    private void checkArity(int arity, int argCount) {
+        if (arity != argCount) {
+            CallFrame frame = frames[frameCount - 1];
+            throw error(frame, frame.ip, String.format("Expect %d arguments but got %d.", arity, argCount));
+        }
+    }
+
+    private ObjUpvalue captureUpvalue(int slot) {
+        ObjUpvalue previous = null;
+        ObjUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) {
+            return upvalue;
+        }
+        ObjUpvalue created = new ObjUpvalue(stack, slot);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            ObjUpvalue upvalue = openUpvalues;
+            upvalue.close();
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private RuntimeError error(CallFrame frame, int ip, String message) {
+        return new RuntimeError(frame.closure.function.chunk.getLine(Math.max(0, ip - 1)), message);
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+
+    public static class ObjFunction {
+        private final String name;
+        private final int arity;
+        private final Chunk chunk = new Chunk();
+        private int upvalueCount = 0;
+
+        public ObjFunction(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+        }
+
+        public Chunk getChunk() {
+            return chunk;
+        }
+
+        public int getUpvalueCount() {
+            return upvalueCount;
+        }
+
+        public void setUpvalueCount(int upvalueCount) {
+            this.upvalueCount = upvalueCount;
+        }
+
+        @Override
+        public String toString() {
+            return null == name ? "<fn>" : String.format("<fn %s>", name);
+        }
+    }
+
+    private static class ObjClosure {
+        private final ObjFunction function;
+        private final ObjUpvalue[] upvalues;
+
+        private ObjClosure(ObjFunction function) {
+            this.function = function;
+            this.upvalues = new ObjUpvalue[function.upvalueCount];
+        }
+
+        @Override
+        public String toString() {
+            return function.toString();
+        }
+    }
+
+    private static class ObjUpvalue {
+        private Object[] values;
+        private int slot;
+        private ObjUpvalue next;
+
+        private ObjUpvalue(Object[] stack, int slot) {
+            this.values = stack;
+            this.slot = slot;
+        }
+
+        private Object get() {
+            return values[slot];
+        }
+
+        private void set(Object value) {
+            values[slot] = value;
+        }
+
+        private void close() {
+            values = new Object[]{values[slot]};
+            slot = 0;
+        }
+    }
+
+    private static class ObjInstance {
+        // null only while the metaclass itself is being created
+        private final ObjClass klass;
+        private final Map<String, Object> fields = new HashMap<>();
+
+        private ObjInstance(ObjClass klass) {
+            this.klass = klass;
+        }
+
+        @Override
+        public String toString() {
+            return klass.name + " instance";
+        }
+    }
+
+    private static class ObjClass extends ObjInstance {
+        private final String name;
+        private final Map<String, ObjClosure> methods = new HashMap<>();
+        private ObjClosure initializer;
+
+        private ObjClass(String name) {
+            super(new ObjClass(null, name + "metaclass"));
+            this.name = name;
+        }
+
+        // metaclass
+        private ObjClass(ObjClass klass, String name) {
+            super(klass);
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class ObjBoundMethod {
+        private final ObjInstance receiver;
+        private final ObjClosure method;
+
+        private ObjBoundMethod(ObjInstance receiver, ObjClosure method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            // like LoxFunction.bind, a bound method has no name
+            return "<fn>";
+        }
+    }
+
+    private abstract static class ObjNative {
+        private final String name;
+        private final int arity;
+
+        private ObjNative(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+        }
+
+        /**
+         * @param args stack index of the first argument
+         */
+        abstract Object call(Object[] stack, int args);
+
+        @Override
+        public String toString() {
+            return "<native fn " + name + ">";
+        }
+    }
+}
@@ -16,32 +16,33 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assignment  : Token name, Expr value",
+                "Assignment  : Token name, Expr value | int depth = -1, int slot, GlobalCell cell, boolean captured",
                 "Ternary  : Expr expr, Expr thenBranch, Expr elseBranch",
-                "Binary   : Expr left, Token operator, Expr right",
+                "Binary   : Expr left, Token operator, Expr right | boolean numeric",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
-                "Unary    : Token operator, Expr right",
-                "Variable : Token name",
+                "Unary    : Token operator, Expr right | boolean numeric",
+                "Variable : Token name | int depth = -1, int slot, GlobalCell cell, boolean captured",
                 "Logical  : Expr left, Token operator, Expr right",
                 "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Function : List<Token> params, List<Stmt> body",
-                "Get      : Expr object, Token name",
-                "Set      : Expr object, Token name, Expr value",
-                "This     : Token keyword",
-                "Super    : Token keyword, Token method"
+                "Inline   : Expr.Call call, Expr.Function function, Expr body | int base, boolean missed",
+                "Function : List<Token> params, List<Stmt> body | int frameSize, int firstParam, Profile profile = new Profile(), boolean closures, int[] captureDepths = new int[0], int[] captureSlots = new int[0], int[] capturedParams = new int[0]",
+                "Get      : Expr object, Token name | InlineCache cache = new InlineCache()",
+                "Set      : Expr object, Token name, Expr value | InlineCache cache = new InlineCache()",
+                "This     : Token keyword | int depth = -1, int slot",
+                "Super    : Token keyword, Token method | int depth = -1, int slot, int thisDepth, int thisSlot"
         ));
         defineAst(outputDir, "Stmt", Arrays.asList(
                 "Expression : Expr expression",
                 "Print : Expr expression",
-                "Var: Token name, Expr initializer",
-                "Block: List<Stmt> statements",
+                "Var: Token name, Expr initializer | int slot = -1, boolean captured",
+                "Block: List<Stmt> statements | int frameSize, boolean scoped, boolean closures",
                 "If: Expr condition, Stmt thenStatement, Stmt elseStatement",
-                "While: Expr condition, Stmt body",
+                "While: Expr condition, Stmt body | int frameSize, Profile profile, JitCompiler.CompiledBody compiledLoop, boolean rejected",
                 "Break: Token keyword",
-                "Function: Token name, Expr.Function function",
-                "Return: Token keyword, Expr value",
-                "Class: Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Stmt.Function> classMethods"
+                "Function: Token name, Expr.Function function | int slot = -1, boolean captured",
+                "Return: Token keyword, Expr value | boolean tailCall",
+                "Class: Token name, Expr.Variable superclass, List<Stmt.Function> methods, List<Stmt.Function> classMethods | int slot = -1, List<String> superMethods = List.of(), boolean captured"
         ));
     }
 
@@ -62,8 +63,11 @@ public class GenerateAst {
             for (String type : types) {
                 String[] parts = type.split(":");
                 String className = parts[0].trim();
-                String fieldList = parts[1].trim();
-                defineType(writer, baseName, className, fieldList);
+                // fields after '|' are filled in by later passes (e.g. the resolver), not by the parser
+                String[] fieldParts = parts[1].split("\\|");
+                String fieldList = fieldParts[0].trim();
+                String annotationList = fieldParts.length > 1 ? fieldParts[1].trim() : "";
+                defineType(writer, baseName, className, fieldList, annotationList);
             }
             writer.println("}");
         }
@@ -80,7 +84,7 @@ public class GenerateAst {
         writer.println();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String annotationList) {
         writer.println("\tpublic static class " + className + " extends " + baseName + " {");
         String[] fields;
         if (fieldList.isEmpty()) {
@@ -88,9 +92,18 @@ public class GenerateAst {
         } else {
             fields = fieldList.split(", ");
         }
+        String[] annotations;
+        if (annotationList.isEmpty()) {
+            annotations = new String[0];
+        } else {
+            annotations = annotationList.split(", ");
+        }
         for (String field : fields) {
             writer.println("\t\tprivate final " + field + ";");
         }
+        for (String annotation : annotations) {
+            writer.println("\t\tprivate " + annotation + ";");
+        }
         writer.println();
         // constructor
         writer.println("\t\tpublic " + className + "(" + fieldList + ") {");
@@ -115,6 +128,20 @@ public class GenerateAst {
             writer.println("\t\t}");
             writer.println();
         }
+        // getter and setter
+        for (String annotation : annotations) {
+            String declaration = annotation.split("=")[0].trim();
+            String fieldName = declaration.split(" ")[1];
+            String fieldType = declaration.split(" ")[0];
+            writer.println("\t\tpublic " + fieldType + " get" + capitalize(fieldName) + "() {");
+            writer.println("\t\t\treturn " + fieldName + ";");
+            writer.println("\t\t}");
+            writer.println();
+            writer.println("\t\tpublic void set" + capitalize(fieldName) + "(" + fieldType + " " + fieldName + ") {");
+            writer.println("\t\t\tthis." + fieldName + " = " + fieldName + ";");
+            writer.println("\t\t}");
+            writer.println();
+        }
         writer.println("\t}");
         writer.println();
     }
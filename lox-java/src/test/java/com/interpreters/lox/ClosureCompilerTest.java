@@ -0,0 +1,61 @@
+package com.interpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+class ClosureCompilerTest {
+
+    @Test
+    void testClosureEngine() {
+        Lox.run("""
+                fun fib(n) {
+                  if (n <= 1) return n;
+                  return fib(n - 2) + fib(n - 1);
+                }
+                for (var i = 0; i < 10; i = i + 1) {
+                  if (i > 8) break;
+                  print fib(i) + " " + (i < 5 and "small" or "big");
+                }
+                """, Lox.Engine.CLOSURE);
+        Lox.run("""
+                class A {
+                  init(name) { this.name = name; }
+                  hello() { return "A " + this.name; }
+                }
+                class B < A {
+                  hello() { return "B " + super.hello(); }
+                }
+                var b = B("b");
+                print b.hello();
+                """, Lox.Engine.CLOSURE);
+    }
+
+    @Test
+    void testSpecializedNodesRewriteBack() {
+        Lox.run("""
+                fun add(a, b) { return a + b; }
+                fun less(a, b) { return a < b; }
+                for (var i = 0; i < 3; i = i + 1) print add(i, 1);
+                print add("a", "b");
+                print add("a", 1);
+                print less(1, 2);
+                var f = add;
+                print f(1, 2);
+                class P { init() { this.x = 1; } }
+                f = P;
+                print f().x;
+                print less("a", 1);
+                """, Lox.Engine.CLOSURE);
+    }
+
+    @Test
+    void testUnboxedArithmetic() {
+        Lox.run("""
+                fun f(a, b) { return (a * 2 - 1) * (b / 4) + -a; }
+                fun g(a, b) { return !(a < b) and a + 1 > b; }
+                for (var i = 0; i < 3; i = i + 1) { print f(i, i + 1); print g(i, 1); }
+                fun h(a) { return a + 1 + 2; }
+                print h(1);
+                print h("s");
+                """, Lox.Engine.CLOSURE);
+    }
+}
@@ -0,0 +1,60 @@
+package com.interpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+class JitCompilerTest {
+
+    @Test
+    void testHotFunctions() {
+        Lox.run("""
+                fun add(a, b) {
+                  var c;
+                  c = a + b;
+                  while (true) { if (c > 0 or c < 0) break; c = c + 1; }
+                  return c;
+                }
+                class Counter {
+                  init() { this.n = 0; }
+                  inc() { this.n = add(this.n, 1); return this; }
+                }
+                var counter = Counter();
+                for (var i = 0; i < 3000; i = i + 1) counter.inc();
+                print counter.n;
+                print add("a", 1);
+                """);
+    }
+
+    @Test
+    void testDeoptimization() {
+        Lox.run("""
+                fun sq(x) { return x * x; }
+                fun neg(x) { return -x; }
+                fun f(a) { return sq(a) + 1; }
+                fun loop(n) { var s = 0; for (var i = 0; i < n; i = i + 1) s = s + f(i); return s; }
+                print loop(1500);
+                sq = neg;
+                print loop(1500);
+                print loop(1500);
+                """);
+    }
+
+    @Test
+    void testOnStackReplacement() {
+        Lox.run("""
+                var i = 0;
+                var s = 0;
+                while (i < 20000) { s = s + i; i = i + 1; }
+                print s;
+                {
+                  var t;
+                  for (var j = 0; j < 20000; j = j + 1) { if (j == 19999) t = j; }
+                  print t;
+                }
+                fun find(n) {
+                  var m = 0;
+                  while (true) { m = m + 1; if (m == n) return m * 2; }
+                }
+                print find(20000);
+                """);
+    }
+}
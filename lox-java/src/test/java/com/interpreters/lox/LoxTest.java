@@ -2,6 +2,8 @@ package com.interpreters.lox;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class LoxTest {
@@ -191,4 +193,245 @@ class LoxTest {
                 C().test();
                 """);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testLocalSlots() {
+        Lox.run("""
+                {
+                  var k = 2;
+                  var none = nil;
+                  class M {
+                    class f() { return k; }
+                    g() { return k + none; }
+                  }
+                  print M.f();
+                  print (k + 1) * 2;
+                }
+                """);
+    }
+
+    @Test
+    void testGlobalCells() {
+        Lox.run("""
+                fun useLater() { return later + 1; }
+                var later = 41;
+                print useLater();
+                """);
+        // redefinition in a later run rebinds the same cell
+        Lox.run("""
+                var later = "re";
+                print useLater();
+                """);
+    }
+
+    @Test
+    void testPolymorphicProperties() {
+        Lox.run("""
+                class A { m() { return "A"; } }
+                class B < A { m() { return "B"; } }
+                class C < A {}
+                class D { m() { return "D"; } }
+                class E { m() { return "E"; } }
+                fun call(o) { return o.m(); }
+                for (var i = 0; i < 2; i = i + 1) {
+                  print call(A()) + call(B()) + call(C()) + call(D()) + call(E());
+                }
+                var shadow = A();
+                shadow.m = fun () { return "field"; };
+                print call(shadow);
+                """);
+    }
+
+    @Test
+    void testShapes() {
+        Lox.run("""
+                class P { init(x, y) { this.x = x; this.y = y; } sum() { return this.x + this.y; } }
+                var a = P(1, 2);
+                var b = P(3, 4);
+                b.z = 5;
+                b.x = 10;
+                print a.sum() + b.sum() + b.z;
+                class Bag {}
+                var bag = Bag();
+                bag.a = 1; bag.b = 2;
+                print bag.a + bag.b;
+                """);
+    }
+
+    @Test
+    void testSuperResolvedPerClass() {
+        Lox.run("""
+                fun make(base) {
+                  class K < base { who() { return super.who() + "+K"; } }
+                  return K;
+                }
+                class X { who() { return "X"; } }
+                class Y { who() { return "Y"; } }
+                print make(X)().who();
+                print make(Y)().who();
+                """);
+    }
+
+    @Test
+    void testMethodInvocation() {
+        Lox.run("""
+                class Counter {
+                  init(start) { this.n = start; }
+                  inc() { this.n = this.n + 1; return this; }
+                  adder() { fun add(x) { return this.n + x; } return add; }
+                }
+                var c = Counter(1);
+                print c.inc().inc().n;
+                print c.adder()(10);
+                c.f = Counter;
+                print c.f(5).n;
+                var inc = c.inc;
+                print inc().n;
+                """);
+    }
+
+    @Test
+    void testEarlyReturnsAndBreaks() {
+        Lox.run("""
+                fun firstOver(limit) {
+                  for (var i = 0; i < 100; i = i + 1) {
+                    for (var j = 0; j < 100; j = j + 1) {
+                      if (i * j > limit) { return i + j; }
+                      if (j > i) break;
+                    }
+                  }
+                  return nil;
+                }
+                print firstOver(30);
+                print firstOver(100000);
+                class P { init(x) { this.x = x; if (x > 1) return; this.x = 0; } }
+                print P(5).x;
+                """);
+    }
+
+    @Test
+    void testFixedArityCalls() {
+        Lox.run("""
+                fun f2(a, b) { return a + b; }
+                fun f5(a, b, c, d, e) { return a + b + c + d + e; }
+                print f2(1, 2) + f5(1, 2, 3, 4, 5);
+                class V { init(a, b, c, d, e) { this.s = a + b + c + d + e; } m(a) { return this.s + a; } }
+                print V(1, 1, 1, 1, 1).m(2);
+                print clock() > 0;
+                """);
+    }
+
+    @Test
+    void testTailCalls() {
+        Lox.run("""
+                fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); }
+                print count(100000, 0);
+                fun even(n) { if (n == 0) return true; return odd(n - 1); }
+                fun odd(n) { if (n == 0) return false; return even(n - 1); }
+                print even(50001);
+                class Walker { step(i) { if (i >= 30000) return i; return this.step(i + 1); } }
+                print Walker().step(0);
+                """);
+    }
+
+    @Test
+    void testBlocksWithoutFrames() {
+        Lox.run("""
+                fun sum(n) {
+                    var total = 0;
+                    for (var i = 0; i < n; i = i + 1) { var sq = i * i; { var one = 1; total = total + sq + one; } }
+                    { var a = "shadow"; print a; }
+                    return total;
+                }
+                print sum(10);
+                var fns = nil;
+                for (var i = 0; i < 2; i = i + 1) { var j = i; fun get() { return j; } if (i == 0) fns = get; }
+                print fns();
+                """);
+    }
+
+    @Test
+    void testTopLevelLoopFrame() {
+        String source = """
+                var i = 0;
+                var get = nil;
+                while (i < 3) { var t = i * 2; { var u = t + 1; print u; } if (i == 1) { fun f() { return t; } get = f; } i = i + 1; }
+                print get();
+                """;
+        Lox.run(source);
+        List<Stmt> stmts = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver(new Interpreter()).resolve(stmts);
+        // the body's blocks share the loop's frame instead of making one per iteration
+        Stmt.While loop = (Stmt.While) stmts.get(2);
+        assertEquals(2, loop.getFrameSize());
+        assertFalse(((Stmt.Block) loop.getBody()).getScoped());
+    }
+
+    @Test
+    void testStringConcatenationInLoop() {
+        Lox.run("""
+                var s = "";
+                for (var i = 0; i < 10000; i = i + 1) { s = s + "line " + i + ";"; }
+                var copy = "" + s;
+                print copy == s;
+                print "0123456789012345678901234567890123456789" + "0123456789012345678901234567890123456789" + nil;
+                """);
+    }
+
+    @Test
+    void testInlinedCalls() {
+        Lox.run("""
+                fun sq(x) { return x * x; }
+                fun other(x) { return -x; }
+                class Point {
+                  init(x) { this.x = x; }
+                  getX() { return this.x; }
+                }
+                fun run() {
+                  var p = Point(3);
+                  var total = 0;
+                  for (var i = 0; i < 4; i = i + 1) {
+                    if (i == 2) sq = other;
+                    total = total + sq(p.getX());
+                  }
+                  print total;
+                  p.getX = sq;
+                  print p.getX(2);
+                }
+                run();
+                """);
+    }
+
+    @Test
+    void testUpvalues() {
+        Lox.run("""
+                fun makeCounter() {
+                  var count = 0;
+                  fun inc() { count = count + 1; return count; }
+                  return inc;
+                }
+                var c = makeCounter();
+                c();
+                print c();
+                fun outer(a) {
+                  fun middle() { fun inner() { a = a + 1; return a; } return inner; }
+                  var f = middle();
+                  f();
+                  return a;
+                }
+                print outer(1);
+                fun loop() {
+                  var first;
+                  for (var i = 0; i < 2; i = i + 1) { var j = i; var f = fun () { return j; }; if (i == 0) first = f; }
+                  return first();
+                }
+                print loop();
+                class A { name() { return "A"; } }
+                fun local() {
+                  class B < A { name() { var f = fun () { return super.name() + "B"; }; return f(); } }
+                  return B().name();
+                }
+                print local();
+                """);
+    }
+}
@@ -0,0 +1,67 @@
+package com.interpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptimizerTest {
+    private static String optimize(String source, int changes) {
+        List<Stmt> stmts = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver(new Interpreter()).resolve(stmts);
+        Optimizer optimizer = new Optimizer();
+        String result = new AstPrinter().print(optimizer.optimize(stmts));
+        assertEquals(changes, optimizer.getChanges().size());
+        return result;
+    }
+
+    @Test
+    void testConstantFolding() {
+        assertEquals("print 7.0;", optimize("print 1 + 2 * 3;", 2));
+        assertEquals("print a1;", optimize("print \"a\" + 1;", 1));
+        assertEquals("print y;", optimize("print true ? \"y\" : \"n\";", 1));
+        // still fails at run time
+        assertEquals("print (/ 1.0 0.0);", optimize("print 1 / 0;", 0));
+    }
+
+    @Test
+    void testSameBranches() {
+        assertEquals("class C{\n\nfun m(x) {\nreturn x;\n}\n}", optimize("class C { m(x) { return this ? x : x; } }", 1));
+        // the condition still runs
+        assertEquals("fun f(c,x) {\nreturn (, c nil) or x;\n}", optimize("fun f(c, x) { return c ? x : x; }", 1));
+        assertEquals("fun f(x) {\nreturn (, x() nil) or x;\n}", optimize("fun f(x) { return x() ? x : x; }", 1));
+        assertEquals("fun f(c,x) {\nreturn c? x : c;\n}", optimize("fun f(c, x) { return c ? x : c; }", 0));
+    }
+
+    @Test
+    void testIdentities() {
+        assertEquals("fun f(x) {\nreturn (group (- x 1.0));\n}", optimize("fun f(x) { return (x - 1) * 1; }", 1));
+        // x may be a string
+        assertEquals("fun f(x) {\nreturn (* x 1.0);\n}", optimize("fun f(x) { return x * 1; }", 0));
+    }
+
+    @Test
+    void testDeadCode() {
+        assertEquals("fun f() {\nreturn 1.0;\n}", optimize("fun f() { return 1; print 2; }", 1));
+        assertEquals("print 2.0;", optimize("if (false) print 1; else print 2;", 1));
+        assertEquals("", optimize("while (false) print 1; 1 + 2;", 3));
+        // the condition is still evaluated
+        assertEquals("fun f(a) {\na;\n}", optimize("fun f(a) { if (a) {} }", 0));
+    }
+
+    @Test
+    void testInlining() {
+        assertEquals("fun sq(x) {\nreturn (* x x);\n}\nfun f(a) {\nreturn (inline (* x x));\n}",
+                optimize("fun sq(x) { return x * x; } fun f(a) { return sq(a); }", 1));
+        assertTrue(optimize("class A { get() { return this.v; } } fun f(a) { return a.get(); }", 1)
+                .contains("return (inline this.v);"));
+        // no frame for the temporaries at the top level
+        optimize("fun sq(x) { return x * x; } print sq(2);", 0);
+        // the callee may be either declaration
+        optimize("fun g() { return 1; } fun g() { return 2; } fun f() { return g(); }", 0);
+        optimize("class A { get() { return 1; } } class B { get() { return 2; } } fun f(a) { return a.get(); }", 0);
+        // calls are not inlined
+        optimize("fun g(n) { return g(n - 1); } fun f() { return g(1); }", 0);
+    }
+}
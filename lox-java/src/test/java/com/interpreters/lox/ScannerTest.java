@@ -1,7 +1,13 @@
 package com.interpreters.lox;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -39,4 +45,28 @@ class ScannerTest {
         assertEquals(TokenType.NUMBER, tokens.get(3).getTokenType());
         assertEquals(TokenType.EOF, tokens.get(4).getTokenType());
     }
-}
\ No newline at end of file
+
+    @Test
+    void internNames() {
+        List<Token> first = new Scanner("init(count)").scanTokens();
+        List<Token> second = new Scanner("count + init").scanTokens();
+        assertSame(first.get(2).getLexeme(), second.get(0).getLexeme());
+        assertSame(first.get(0).getLexeme(), second.get(2).getLexeme());
+        assertEquals("\"s\"", new Scanner("\"s\"").scanTokens().get(0).getLexeme());
+    }
+
+    @Test
+    void scanLoadedSource(@TempDir Path dir) throws IOException {
+        Path ascii = Files.writeString(dir.resolve("ascii.lox"), "var name = \"lox\";");
+        List<Token> tokens = new Scanner(Source.load(ascii)).scanTokens();
+        assertEquals("name", tokens.get(1).getLexeme());
+        assertEquals("lox", tokens.get(3).getLiteral());
+        // decoded as UTF-8 whatever the default charset, with the byte order mark skipped
+        Path utf8 = Files.writeString(dir.resolve("utf8.lox"), "\uFEFFprint \"h\u00e9llo \u4e16\u754c\";", StandardCharsets.UTF_8);
+        tokens = new Scanner(Source.load(utf8)).scanTokens();
+        assertEquals(TokenType.PRINT, tokens.get(0).getTokenType());
+        assertEquals("h\u00e9llo \u4e16\u754c", tokens.get(1).getLiteral());
+        Path latin1 = Files.write(dir.resolve("latin1.lox"), "print \"h\u00e9\";".getBytes(StandardCharsets.ISO_8859_1));
+        assertThrows(CharacterCodingException.class, () -> Source.load(latin1));
+    }
+}
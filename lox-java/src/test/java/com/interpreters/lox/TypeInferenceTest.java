@@ -0,0 +1,37 @@
+package com.interpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TypeInferenceTest {
+    private static List<Stmt> infer(String source) {
+        List<Stmt> stmts = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver(new Interpreter()).resolve(stmts);
+        new TypeInference().infer(stmts);
+        return stmts;
+    }
+
+    private static Expr.Binary returned(List<Stmt> stmts) {
+        List<Stmt> body = ((Stmt.Function) stmts.get(0)).getFunction().getBody();
+        return (Expr.Binary) ((Stmt.Return) body.get(body.size() - 1)).getValue();
+    }
+
+    @Test
+    void testNumericLocals() {
+        assertTrue(returned(infer("fun f() { var a = 1; var b = a * 2; return a + b; }")).getNumeric());
+        // parameters can be of any type
+        assertFalse(returned(infer("fun f(x) { var a = 1; return a + x; }")).getNumeric());
+    }
+
+    @Test
+    void testBranchesAndLoops() {
+        assertFalse(returned(infer("fun f(c) { var a = 1; if (c) a = \"s\"; return a + 1; }")).getNumeric());
+        assertTrue(returned(infer("fun f(c) { var a = 1; if (c) a = 2; else a = -a; return a + 1; }")).getNumeric());
+        assertFalse(returned(infer("fun f() { var a = 1; while (a < 5) { a = a + 1; if (a == 3) a = nil; } return a + 1; }")).getNumeric());
+        // a closure may assign the local
+        assertFalse(returned(infer("fun f() { var a = 1; fun g() { a = nil; } g(); return a + 1; }")).getNumeric());
+    }
+}
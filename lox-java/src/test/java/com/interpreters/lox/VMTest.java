@@ -0,0 +1,49 @@
+package com.interpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+class VMTest {
+
+    @Test
+    void testBytecodeEngine() {
+        Lox.run("""
+                fun makeCounter() {
+                  var i = 0;
+                  fun count() {
+                    i = i + 1;
+                    return i;
+                  }
+                  return count;
+                }
+                var counter = makeCounter();
+                counter();
+                print counter();
+                for (var i = 0; i < 10; i = i + 1) {
+                  var captured = i;
+                  if (i > 2) break;
+                  print i == 0 ? "zero" : (i, captured);
+                }
+                """, Lox.Engine.BYTECODE);
+        Lox.run("""
+                class A {
+                  method() { return "A method"; }
+                }
+                class B < A {
+                  init(x) { this.x = x; }
+                  method() { return "B " + super.method() + " " + this.x; }
+                  class make() { return B("made"); }
+                }
+                print B.make().method();
+                """, Lox.Engine.BYTECODE);
+    }
+
+    @Test
+    void testTailCalls() {
+        Lox.run("""
+                fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); }
+                print count(100000, 0);
+                class Walker { step(i) { if (i >= 30000) return i; return this.step(i + 1); } }
+                print Walker().step(0);
+                """, Lox.Engine.BYTECODE);
+    }
+}